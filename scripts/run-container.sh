@@ -5,5 +5,5 @@ NAME=skin_tool
 # public tcp port for the rest api
 PORT=42069
 echo "$REDIS_URI is the uri"
-# run the container
-docker run -it -d --name $NAME -e REDIS_URI=$REDIS_URI -e SKIN_TOOL_PYTHON_URI=$SKIN_TOOL_PYTHON_URI -p $PORT:8080 jcedeno/skin-tool-ipfs:latest
+# run the container, keeping the local skin store in a named volume
+docker run -it -d --name $NAME -v skin_tool_data:/data -e REDIS_URI=$REDIS_URI -e REDIS_MODE=$REDIS_MODE -e REDIS_BUCKETS=$REDIS_BUCKETS -e SKIN_TOOL_PYTHON_URI=$SKIN_TOOL_PYTHON_URI -p $PORT:8080 jcedeno/skin-tool-ipfs:latest
@@ -4,11 +4,17 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.time.Duration;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
@@ -17,75 +23,100 @@ import com.google.gson.JsonParser;
 import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.mineskin.data.MineskinException;
+import org.mineskin.data.MineskinRateLimitException;
 import org.mineskin.data.Skin;
 import org.mineskin.data.SkinCallback;
+import org.mineskin.jfr.MineskinRateLimitEvent;
+import org.mineskin.jfr.MineskinRequestEvent;
 
 public class MineskinClient {
 
-    private static final String API_BASE = "https://api.mineskin.org";
-    private static final String GENERATE_BASE = API_BASE + "/generate";
-    private static final String GET_BASE = API_BASE + "/get";
+    public static final String DEFAULT_API_BASE = "https://api.mineskin.org";
 
-    private static final String ID_FORMAT = "https://api.mineskin.org/get/id/%s";
-    private static final String URL_FORMAT = "https://api.mineskin.org/generate/url?url=%s&%s";
-    private static final String UPLOAD_FORMAT = "https://api.mineskin.org/generate/upload?%s";
-    private static final String USER_FORMAT = "https://api.mineskin.org/generate/user/%s?%s";
+    private static final String ID_FORMAT = "%s/get/id/%s";
+    private static final String URL_FORMAT = "%s/generate/url?url=%s&%s";
+    private static final String UPLOAD_FORMAT = "%s/generate/upload?%s";
+    private static final String USER_FORMAT = "%s/generate/user/%s?%s";
+
+    private static final int READ_THREADS = 4;
+    private static final int READ_CACHE_SIZE = 10_000;
+    private static final Duration READ_CACHE_TTL = Duration.ofMinutes(10);
 
     private final Executor requestExecutor;
     private final String userAgent;
     private final String apiKey;
+    private final String apiBase;
 
     private final JsonParser jsonParser = new JsonParser();
     private final Gson gson = new Gson();
 
-    private long nextRequest = 0;
+    /** Lookups of the get api, separate from the rate limited generate requests. */
+    private final Executor readExecutor = Executors.newFixedThreadPool(READ_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("mineskin-read-%d").setDaemon(true).build());
+    private final Cache<String, CompletableFuture<Skin>> readCache = CacheBuilder.newBuilder()
+            .maximumSize(READ_CACHE_SIZE).expireAfterWrite(READ_CACHE_TTL).build();
+
+    private volatile long nextRequest = 0;
+    /** Extra wait on top of the {@code nextRequest} mineskin asks for. */
+    private volatile long rateLimitMargin = 10_000;
+    /** How long mineskin last asked to wait between generate requests, margin included. */
+    private volatile long requestInterval = 0;
+    /** The time slot claimed by the latest generate request, see {@link #awaitSlot}. */
+    private final AtomicLong lastSlot = new AtomicLong();
 
     @Deprecated
     public MineskinClient() {
-        this.requestExecutor = Executors.newSingleThreadExecutor();
-        this.userAgent = "MineSkin-JavaClient";
-        this.apiKey = null;
+        this(Executors.newSingleThreadExecutor(), "MineSkin-JavaClient", null, DEFAULT_API_BASE);
     }
 
     @Deprecated
     public MineskinClient(Executor requestExecutor) {
-        this.requestExecutor = checkNotNull(requestExecutor);
-        this.userAgent = "MineSkin-JavaClient";
-        this.apiKey = null;
+        this(requestExecutor, "MineSkin-JavaClient", null, DEFAULT_API_BASE);
     }
 
     public MineskinClient(String userAgent) {
-        this.requestExecutor = Executors.newSingleThreadExecutor();
-        this.userAgent = checkNotNull(userAgent);
-        this.apiKey = null;
+        this(Executors.newSingleThreadExecutor(), userAgent, null, DEFAULT_API_BASE);
     }
 
     public MineskinClient(String userAgent, String apiKey) {
-        this.requestExecutor = Executors.newSingleThreadExecutor();
-        this.userAgent = checkNotNull(userAgent);
-        this.apiKey = apiKey;
+        this(Executors.newSingleThreadExecutor(), userAgent, apiKey, DEFAULT_API_BASE);
     }
 
     public MineskinClient(Executor requestExecutor, String userAgent, String apiKey) {
-        this.requestExecutor = checkNotNull(requestExecutor);
-        this.userAgent = checkNotNull(userAgent);
-        this.apiKey = apiKey;
+        this(requestExecutor, userAgent, apiKey, DEFAULT_API_BASE);
     }
 
     public MineskinClient(Executor requestExecutor, String userAgent) {
+        this(requestExecutor, userAgent, null, DEFAULT_API_BASE);
+    }
+
+    /**
+     * @param apiBase The base url of the mineskin api, without a trailing slash.
+     *                Pointing it at a local stub allows testing offline.
+     */
+    public MineskinClient(Executor requestExecutor, String userAgent, String apiKey, String apiBase) {
         this.requestExecutor = checkNotNull(requestExecutor);
         this.userAgent = checkNotNull(userAgent);
-        this.apiKey = null;
+        this.apiKey = apiKey;
+        this.apiBase = checkNotNull(apiBase);
     }
 
     public long getNextRequest() {
         return nextRequest;
     }
 
+    /**
+     * Sets how long to wait past the {@code nextRequest} mineskin asks for before
+     * the next generate request, 10 seconds by default.
+     */
+    public void setRateLimitMargin(Duration margin) {
+        this.rateLimitMargin = margin.toMillis();
+    }
+
     /////
 
     private Connection generateRequest(String endpoint) {
-        Connection connection = Jsoup.connect(GENERATE_BASE + endpoint).method(Connection.Method.POST)
+        Connection connection = Jsoup.connect(apiBase + "/generate" + endpoint).method(Connection.Method.POST)
                 .userAgent(userAgent).ignoreContentType(true).ignoreHttpErrors(true).timeout(30000);
         if (apiKey != null) {
             connection.header("Authorization", "Bearer " + apiKey);
@@ -94,30 +125,60 @@ public class MineskinClient {
     }
 
     private Connection getRequest(String endpoint) {
-        return Jsoup.connect(GET_BASE + endpoint).method(Connection.Method.GET).userAgent(userAgent)
+        return Jsoup.connect(apiBase + "/get" + endpoint).method(Connection.Method.GET).userAgent(userAgent)
                 .ignoreContentType(true).ignoreHttpErrors(true).timeout(5000);
     }
 
+    /**
+     * Gets data for an existing skin by its id. Lookups are cached and concurrent
+     * lookups of the same id share one request, see {@link #cachedGet}.
+     */
     public CompletableFuture<Skin> getId(long id) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                Connection connection = getRequest("/id/" + id);
-                return handleResponse(connection.execute().body());
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        }, requestExecutor);
+        return cachedGet("/id", String.valueOf(id));
     }
 
+    /**
+     * Gets data for an existing skin by its uuid. Lookups are cached and
+     * concurrent lookups of the same uuid share one request, see
+     * {@link #cachedGet}.
+     */
     public CompletableFuture<Skin> getUuid(UUID uuid) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                Connection connection = getRequest("/uuid/" + uuid);
-                return handleResponse(connection.execute().body());
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        }, requestExecutor);
+        return cachedGet("/uuid", uuid.toString());
+    }
+
+    /**
+     * Looks up an endpoint of the get api through the read cache. The request is
+     * made on the read executor, so lookups never queue behind generate requests
+     * waiting for the rate limit. Failed lookups are dropped from the cache so
+     * the next call retries them. The returned skin is shared between callers
+     * and must not be modified.
+     */
+    private CompletableFuture<Skin> cachedGet(String endpoint, String key) {
+        String path = endpoint + "/" + key;
+        CompletableFuture<Skin> future;
+        try {
+            future = readCache.get(path, () -> {
+                CompletableFuture<Skin> lookup = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        Connection connection = getRequest(path);
+                        return execute("/get" + endpoint, null, 0, connection);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }, readExecutor);
+                lookup.whenComplete((skin, error) -> {
+                    if (error != null)
+                        readCache.asMap().remove(path, lookup);
+                });
+                return lookup;
+            });
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        // The lookup may have failed before it was cached.
+        if (future.isCompletedExceptionally())
+            readCache.asMap().remove(path, future);
+        return future;
     }
 
     public CompletableFuture<Skin> generateUrl(String url) {
@@ -132,16 +193,13 @@ public class MineskinClient {
         checkNotNull(options);
         return CompletableFuture.supplyAsync(() -> {
             try {
-                if (System.currentTimeMillis() < nextRequest) {
-                    long delay = (nextRequest - System.currentTimeMillis());
-                    Thread.sleep(delay + 1000);
-                }
+                awaitSlot("/generate/url");
 
                 JsonObject body = options.toJson();
                 body.addProperty("url", url);
                 Connection connection = generateRequest("/url").header("Content-Type", "application/json")
                         .requestBody(body.toString());
-                return handleResponse(connection.execute().body());
+                return execute("/generate/url", options.getVariant(), body.toString().length(), connection);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
@@ -160,17 +218,13 @@ public class MineskinClient {
         checkNotNull(options);
         return CompletableFuture.supplyAsync(() -> {
             try {
-                if (System.currentTimeMillis() < nextRequest) {
-                    System.out.println("Waiting for next request...");
-                    long delay = (nextRequest - System.currentTimeMillis());
-                    Thread.sleep(5000);
-                }
+                awaitSlot("/generate/upload");
 
                 Connection connection = generateRequest("/upload")
                         // It really doesn't like setting a content-type header here for some reason
                         .data("file", file.getName(), new FileInputStream(file));
                 options.addAsData(connection);
-                return handleResponse(connection.execute().body());
+                return execute("/generate/upload", options.getVariant(), file.length(), connection);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
@@ -189,34 +243,140 @@ public class MineskinClient {
         checkNotNull(options);
         return CompletableFuture.supplyAsync(() -> {
             try {
-                if (System.currentTimeMillis() < nextRequest) {
-                    long delay = (nextRequest - System.currentTimeMillis());
-                    Thread.sleep(delay + 1000);
-                }
+                awaitSlot("/generate/user");
 
                 JsonObject body = options.toJson();
                 body.addProperty("user", uuid.toString());
                 Connection connection = generateRequest("/user").header("Content-Type", "application/json")
                         .requestBody(body.toString());
-                return handleResponse(connection.execute().body());
+                return execute("/generate/user", options.getVariant(), body.toString().length(), connection);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
         }, requestExecutor);
     }
 
-    Skin handleResponse(String body) throws MineskinException, JsonParseException {
+    /**
+     * Executes a request and handles its response, recording it as a
+     * {@link MineskinRequestEvent}.
+     */
+    private Skin execute(String endpoint, Variant variant, long bytes, Connection connection) throws Exception {
+        MineskinRequestEvent event = new MineskinRequestEvent();
+        event.begin();
+        try {
+            Connection.Response response = connection.execute();
+            if (response.statusCode() == 429)
+                throw rateLimited(response.body());
+            String body = response.body();
+            // Only generate responses carry the rate limit of the next request.
+            Skin skin = endpoint.startsWith("/generate") ? handleResponse(body) : parseResponse(body);
+            event.outcome = "success";
+            event.nextRequest = skin.nextRequest;
+            return skin;
+        } catch (MineskinRateLimitException e) {
+            event.outcome = "rate-limited";
+            event.message = e.getMessage();
+            event.nextRequest = e.getNextRequest();
+            throw e;
+        } catch (MineskinException e) {
+            event.outcome = "error";
+            event.message = e.getMessage();
+            throw e;
+        } catch (Exception e) {
+            event.outcome = "exception";
+            event.message = e.toString();
+            throw e;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.endpoint = endpoint;
+                event.variant = variant != null ? variant.getName() : null;
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Waits for a time slot to send a generate request in. Slots are claimed one
+     * request at a time, each at least the interval mineskin last asked for after
+     * the previous one and never before {@code nextRequest}, so concurrent
+     * requests are spread out instead of all firing once the wait is over. If a
+     * rate limited response pushed {@code nextRequest} back during the wait, a
+     * later slot is claimed.
+     */
+    private void awaitSlot(String endpoint) throws InterruptedException {
+        while (true) {
+            long slot;
+            long last;
+            do {
+                last = lastSlot.get();
+                slot = Math.max(System.currentTimeMillis(), Math.max(nextRequest, last + requestInterval));
+            } while (!lastSlot.compareAndSet(last, slot));
+
+            long delay = slot - System.currentTimeMillis();
+            if (delay > 0)
+                waitForRateLimit(endpoint, delay);
+            if (System.currentTimeMillis() >= nextRequest)
+                return;
+        }
+    }
+
+    /**
+     * Sleeps before a generate request, recording it as a
+     * {@link MineskinRateLimitEvent}.
+     */
+    private void waitForRateLimit(String endpoint, long delay) throws InterruptedException {
+        MineskinRateLimitEvent event = new MineskinRateLimitEvent();
+        event.begin();
+        Thread.sleep(delay);
+        event.end();
+        if (event.shouldCommit()) {
+            event.endpoint = endpoint;
+            event.requestedDelay = delay;
+            event.commit();
+        }
+    }
+
+    Skin parseResponse(String body) throws MineskinException, JsonParseException {
         // System.out.println("Output: " + body);
         JsonObject jsonObject = gson.fromJson(body, JsonObject.class);
         if (jsonObject.has("error")) {
             throw new MineskinException(jsonObject.get("error").getAsString());
         }
 
-        Skin skin = gson.fromJson(jsonObject, Skin.class);
-        this.nextRequest = System.currentTimeMillis() + ((long) ((skin.nextRequest + 10) * 1000L));
+        return gson.fromJson(jsonObject, Skin.class);
+    }
+
+    Skin handleResponse(String body) throws MineskinException, JsonParseException {
+        Skin skin = parseResponse(body);
+        this.requestInterval = ((long) (skin.nextRequest * 1000L)) + rateLimitMargin;
+        this.nextRequest = System.currentTimeMillis() + requestInterval;
         return skin;
     }
 
+    /**
+     * Builds the exception for a rate limited response, pushing back the next
+     * generate request by as long as mineskin asks, plus the margin.
+     */
+    private MineskinRateLimitException rateLimited(String body) {
+        String message = "Too many requests";
+        double delay = 0;
+        try {
+            JsonObject jsonObject = gson.fromJson(body, JsonObject.class);
+            if (jsonObject != null && jsonObject.has("error"))
+                message = jsonObject.get("error").getAsString();
+            if (jsonObject != null && jsonObject.has("nextRequest"))
+                delay = jsonObject.get("nextRequest").getAsDouble();
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+            // Not json, keep the defaults
+        }
+        // Space the requests waiting on it out by as much, until a response says otherwise.
+        this.requestInterval = Math.max(requestInterval, (long) (delay * 1000L) + rateLimitMargin);
+        this.nextRequest = Math.max(nextRequest, System.currentTimeMillis() + requestInterval);
+        return new MineskinRateLimitException(message, delay);
+    }
+
     ///// SkinCallback stuff below
 
     /*
@@ -234,7 +394,7 @@ public class MineskinClient {
         checkNotNull(callback);
         requestExecutor.execute(() -> {
             try {
-                Connection connection = Jsoup.connect(String.format(ID_FORMAT, id)).userAgent(userAgent)
+                Connection connection = Jsoup.connect(String.format(ID_FORMAT, apiBase, id)).userAgent(userAgent)
                         .method(Connection.Method.GET).ignoreContentType(true).ignoreHttpErrors(true).timeout(10000);
                 String body = connection.execute().body();
                 handleResponse(body, callback);
@@ -284,7 +444,7 @@ public class MineskinClient {
 
                 callback.uploading();
 
-                Connection connection = Jsoup.connect(String.format(URL_FORMAT, url, options.toUrlParam()))
+                Connection connection = Jsoup.connect(String.format(URL_FORMAT, apiBase, url, options.toUrlParam()))
                         .userAgent(userAgent).method(Connection.Method.POST).ignoreContentType(true)
                         .ignoreHttpErrors(true).timeout(40000);
                 if (apiKey != null) {
@@ -337,7 +497,7 @@ public class MineskinClient {
 
                 callback.uploading();
 
-                Connection connection = Jsoup.connect(String.format(UPLOAD_FORMAT, options.toUrlParam()))
+                Connection connection = Jsoup.connect(String.format(UPLOAD_FORMAT, apiBase, options.toUrlParam()))
                         .userAgent(userAgent).method(Connection.Method.POST)
                         .data("file", file.getName(), new FileInputStream(file)).ignoreContentType(true)
                         .ignoreHttpErrors(true).timeout(40000);
@@ -391,7 +551,7 @@ public class MineskinClient {
 
                 callback.uploading();
 
-                Connection connection = Jsoup.connect(String.format(USER_FORMAT, uuid.toString(), options.toUrlParam()))
+                Connection connection = Jsoup.connect(String.format(USER_FORMAT, apiBase, uuid.toString(), options.toUrlParam()))
                         .userAgent(userAgent).method(Connection.Method.GET).ignoreContentType(true)
                         .ignoreHttpErrors(true).timeout(40000);
                 if (apiKey != null) {
@@ -30,6 +30,10 @@ public class SkinOptions {
         return String.format(URL_FORMAT, this.name, this.variant.getName(), this.visibility.getCode());
     }
 
+    protected Variant getVariant() {
+        return variant;
+    }
+
     protected JsonObject toJson() {
         JsonObject json = new JsonObject();
         if (!Strings.isNullOrEmpty(name)) {
@@ -0,0 +1,18 @@
+package org.mineskin.data;
+
+/**
+ * Thrown when mineskin rejects a request for exceeding the rate limit.
+ */
+public class MineskinRateLimitException extends MineskinException {
+    /** Seconds until mineskin accepts the next generate request, 0 if unknown. */
+    private final double nextRequest;
+
+    public MineskinRateLimitException(String message, double nextRequest) {
+        super(message);
+        this.nextRequest = nextRequest;
+    }
+
+    public double getNextRequest() {
+        return nextRequest;
+    }
+}
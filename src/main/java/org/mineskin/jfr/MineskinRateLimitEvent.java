@@ -0,0 +1,26 @@
+package org.mineskin.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Time the {@link org.mineskin.MineskinClient} spent sleeping before a generate
+ * request to honour mineskin's rate limit.
+ */
+@Name("org.mineskin.RateLimitWait")
+@Label("Mineskin Rate Limit Wait")
+@Category({ "Mineskin" })
+@StackTrace(false)
+public class MineskinRateLimitEvent extends jdk.jfr.Event {
+
+    @Label("Endpoint")
+    public String endpoint;
+
+    @Label("Requested Delay")
+    @Timespan(Timespan.MILLISECONDS)
+    public long requestedDelay;
+
+}
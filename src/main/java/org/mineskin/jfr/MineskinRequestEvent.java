@@ -0,0 +1,41 @@
+package org.mineskin.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A request made to the mineskin api by the {@link org.mineskin.MineskinClient},
+ * not including the time spent waiting for the rate limit.
+ */
+@Name("org.mineskin.Request")
+@Label("Mineskin Request")
+@Category({ "Mineskin" })
+@StackTrace(false)
+public class MineskinRequestEvent extends jdk.jfr.Event {
+
+    @Label("Endpoint")
+    public String endpoint;
+
+    @Label("Variant")
+    public String variant;
+
+    @Label("Request Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Outcome")
+    @Description("success, rate-limited, error (mineskin returned an error) or exception")
+    public String outcome;
+
+    @Label("Message")
+    public String message;
+
+    @Label("Next Request")
+    @Description("Seconds until mineskin accepts the next generate request")
+    public double nextRequest;
+
+}
@@ -5,10 +5,13 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.Executors;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
@@ -18,10 +21,16 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.web.bind.annotation.RestController;
 
+import io.lettuce.core.ReadFrom;
 import lombok.Getter;
+import us.jcedeno.skin.admission.AdmissionController;
+import us.jcedeno.skin.cluster.ClusterController;
 import us.jcedeno.skin.controllers.SkinController;
-import us.jcedeno.skin.entities.Skin;
+import us.jcedeno.skin.jfr.PythonGenerateEvent;
+import us.jcedeno.skin.mojang.SessionServerClient;
 import us.jcedeno.skin.redis.RedisController;
+import us.jcedeno.skin.store.PersistenceController;
+import us.jcedeno.skin.store.SkinStore;
 import us.jcedeno.skin.uploader.UploaderTask;
 
 /**
@@ -34,47 +43,151 @@ import us.jcedeno.skin.uploader.UploaderTask;
 @RestController
 @SpringBootApplication
 public class SkinToolApplication {
+	/** The size of the local skin store's segment files, 64MB. */
+	private static final int SEGMENT_SIZE = 64 << 20;
+
 	private static @Getter MineskinClient mineskinClient;
+	private static @Getter SessionServerClient sessionServerClient = new SessionServerClient(
+			SessionServerClient.DEFAULT_BASE);
 
 	private static @Getter String skinToolPythonEndpoint;
 	private static @Getter Gson gson = new GsonBuilder().setPrettyPrinting().create();
 	private static HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(15)).build();
 	private static @Getter UploaderTask uploaderThread;
 	private static @Getter RedisController cacheController;
+	private static @Getter PersistenceController persistenceController = new PersistenceController(null, null);
+	private static @Getter AdmissionController admissionController = new AdmissionController(8, 10_000);
+	private static @Getter ClusterController clusterController = new ClusterController(null, List.of());
 
 	public static void main(String[] args) {
 		// Get variables from environment
 		final var mineskinClientKey = getEnvOrEmpty("MINESKIN_KEY");
 		final var mineskinAgent = getEnvOrEmpty("MINESKIN_USR_AGENT");
+		final var mineskinApiBase = getEnvOrEmpty("MINESKIN_API_BASE");
+		final var mineskinRateLimitMargin = getEnvOrEmpty("MINESKIN_RATE_LIMIT_MARGIN_MS");
+		final var sessionServerUri = getEnvOrEmpty("SESSION_SERVER_URI");
+		final var sessionServerRate = getEnvOrEmpty("SESSION_SERVER_RATE");
 		final var skinToolPythonUri = getEnvOrEmpty("SKIN_TOOL_PYTHON_URI");
 		final var redisURI = getEnvOrEmpty("REDIS_URI");
+		final var redisMode = getEnvOrEmpty("REDIS_MODE");
+		final var redisReadFrom = getEnvOrEmpty("REDIS_READ_FROM");
+		final var redisBuckets = getEnvOrEmpty("REDIS_BUCKETS");
+		final var bulkAgingSeconds = getEnvOrEmpty("UPLOAD_BULK_AGING_SECONDS");
+		final var uploadMaxConcurrency = getEnvOrEmpty("UPLOAD_MAX_CONCURRENCY");
+		final var pythonMaxConcurrency = getEnvOrEmpty("PYTHON_MAX_CONCURRENCY");
+		final var maxPendingUploads = getEnvOrEmpty("MAX_PENDING_UPLOADS");
+		final var skinStoreDir = getEnvOrEmpty("SKIN_STORE_DIR");
+		final var uploadMode = getEnvOrEmpty("UPLOAD_MODE");
+		final var publicBaseUrl = getEnvOrEmpty("PUBLIC_BASE_URL");
+		final var clusterNodes = getEnvOrEmpty("CLUSTER_NODES");
+		final var clusterSelf = getEnvOrEmpty("CLUSTER_SELF");
 
 		// Print out all variables
 		System.out.println("MINESKIN_KEY: " + mineskinClientKey);
 		System.out.println("MINESKIN_USR_AGENT: " + mineskinAgent);
+		System.out.println("MINESKIN_API_BASE: " + mineskinApiBase);
+		System.out.println("MINESKIN_RATE_LIMIT_MARGIN_MS: " + mineskinRateLimitMargin);
+		System.out.println("SESSION_SERVER_URI: " + sessionServerUri);
+		System.out.println("SESSION_SERVER_RATE: " + sessionServerRate);
 		System.out.println("SKIN_TOOL_PYTHON_URI: " + skinToolPythonUri);
 		System.out.println("REDIS_URI: " + redisURI);
+		System.out.println("REDIS_MODE: " + redisMode);
+		System.out.println("REDIS_READ_FROM: " + redisReadFrom);
+		System.out.println("REDIS_BUCKETS: " + redisBuckets);
+		System.out.println("UPLOAD_BULK_AGING_SECONDS: " + bulkAgingSeconds);
+		System.out.println("UPLOAD_MAX_CONCURRENCY: " + uploadMaxConcurrency);
+		System.out.println("PYTHON_MAX_CONCURRENCY: " + pythonMaxConcurrency);
+		System.out.println("MAX_PENDING_UPLOADS: " + maxPendingUploads);
+		System.out.println("SKIN_STORE_DIR: " + skinStoreDir);
+		System.out.println("UPLOAD_MODE: " + uploadMode);
+		System.out.println("PUBLIC_BASE_URL: " + publicBaseUrl);
+		System.out.println("CLUSTER_NODES: " + clusterNodes);
+		System.out.println("CLUSTER_SELF: " + clusterSelf);
 
 		// Set the SkinTool Python endpoint
 		skinToolPythonEndpoint = skinToolPythonUri.isEmpty() ? "http://localhost:8069" : skinToolPythonUri;
 
-		// Intialize mineskinClient
-		mineskinClient = mineskinClientKey.isEmpty() ? new MineskinClient(mineskinAgent, mineskinClientKey)
-				: new MineskinClient(mineskinAgent.isEmpty() ? "SkinToolApi" : mineskinAgent);
+		// Intialize mineskinClient, with a thread per in-flight upload so the upload
+		// limiter decides how many run at once
+		mineskinClient = new MineskinClient(
+				Executors.newCachedThreadPool(
+						new ThreadFactoryBuilder().setNameFormat("mineskin-generate-%d").setDaemon(true).build()),
+				mineskinAgent.isEmpty() ? "SkinToolApi" : mineskinAgent,
+				mineskinClientKey.isEmpty() ? null : mineskinClientKey,
+				mineskinApiBase.isEmpty() ? MineskinClient.DEFAULT_API_BASE : mineskinApiBase);
+		// Wait 1 second past the nextRequest mineskin asks for unless configured
+		mineskinClient.setRateLimitMargin(Duration.ofMillis(
+				mineskinRateLimitMargin.isEmpty() ? 1000 : Long.parseLong(mineskinRateLimitMargin)));
+
+		// Fingerprint player skins through mojang's session server, a lookup per
+		// second at most, unless configured otherwise
+		sessionServerClient = new SessionServerClient(
+				sessionServerUri.isEmpty() ? SessionServerClient.DEFAULT_BASE : normalizeUrl(sessionServerUri),
+				sessionServerRate.isEmpty() ? 1 : Double.parseDouble(sessionServerRate));
+
+		// Limit concurrent python calls to 8 and the upload backlog to 10k players unless
+		// configured otherwise
+		admissionController = new AdmissionController(
+				pythonMaxConcurrency.isEmpty() ? 8 : Integer.parseInt(pythonMaxConcurrency),
+				maxPendingUploads.isEmpty() ? 10_000 : Integer.parseInt(maxPendingUploads));
+
+		// Have mineskin fetch textures from us in url mode, which needs to know where
+		// we're reachable from
+		String textureBaseUrl = null;
+		if (uploadMode.equalsIgnoreCase("url")) {
+			if (publicBaseUrl.isEmpty())
+				System.out.println("UPLOAD_MODE=url requires PUBLIC_BASE_URL, uploading skins instead.");
+			else
+				textureBaseUrl = normalizeUrl(publicBaseUrl);
+		}
+
+		// Bulk uploads compete with interactive ones after 5 minutes, and up to 8
+		// uploads run at once while mineskin keeps asking for at most a second between
+		// them, unless configured otherwise
+		UploaderTask.configure(Duration.ofSeconds(bulkAgingSeconds.isEmpty() ? 300 : Long.parseLong(bulkAgingSeconds)),
+				textureBaseUrl, uploadMaxConcurrency.isEmpty() ? 8 : Integer.parseInt(uploadMaxConcurrency), 1);
+
+		// Partition players across the cluster nodes, if this node is part of one
+		if (!clusterNodes.isEmpty()) {
+			if (clusterSelf.isEmpty())
+				System.out.println("CLUSTER_NODES requires CLUSTER_SELF, running unpartitioned instead.");
+			else
+				clusterController = new ClusterController(normalizeUrl(clusterSelf),
+						Arrays.stream(clusterNodes.split(",")).map(String::trim).filter(node -> !node.isEmpty())
+								.map(SkinToolApplication::normalizeUrl).toList());
+		}
 
 		// Run Spring Boot
 		SpringApplication.run(SkinToolApplication.class, args);
 
 		// Initialize cache controller
 		if (redisURI != null && !redisURI.isEmpty()) {
+			// A single server unless configured otherwise, reading from the masters
+			// unless configured otherwise
+			var mode = redisMode.isEmpty() ? RedisController.Mode.STANDALONE
+					: RedisController.Mode.valueOf(redisMode.toUpperCase());
+			if (mode == RedisController.Mode.STANDALONE && !redisReadFrom.isEmpty())
+				System.out.println("REDIS_READ_FROM only applies to REDIS_MODE replica or cluster, ignoring it.");
+			cacheController = new RedisController(redisURI, mode,
+					mode == RedisController.Mode.STANDALONE || redisReadFrom.isEmpty() ? null
+							: ReadFrom.valueOf(redisReadFrom),
+					redisBuckets.isEmpty() ? 0 : Integer.parseInt(redisBuckets));
+		} else if (clusterController.isEnabled()) {
+			System.out.println("Running partitioned without REDIS_URI, players can't be handed off between nodes.");
+		}
 
-			cacheController = new RedisController(redisURI);
-			cacheController.getRedisConnection().sync().hgetall("skins").entrySet().forEach(all -> {
-				var id = UUID.fromString(all.getKey());
-				var skins = List.of(gson.fromJson(all.getValue(), Skin[].class));
-				SkinController.getSkinCollectionMap().put(id, skins);
-			});
+		// Open the local skin store, unless disabled, and load the stored skins
+		SkinStore localStore = null;
+		if (!skinStoreDir.equalsIgnoreCase("none")) {
+			try {
+				localStore = new SkinStore(Path.of(skinStoreDir.isEmpty() ? "data" : skinStoreDir), SEGMENT_SIZE);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
+		persistenceController = new PersistenceController(localStore, cacheController);
+		Runtime.getRuntime().addShutdownHook(new Thread(persistenceController::close, "persistence-shutdown"));
+		persistenceController.load(SkinController.getSkinCollectionMap(), clusterController::owns);
 
 		// Create and start Uploader Task Thread
 		uploaderThread = new UploaderTask();
@@ -82,6 +195,14 @@ public class SkinToolApplication {
 
 	}
 
+	/**
+	 * Util function that strips the trailing slashes of a base url, so paths can
+	 * be appended to it.
+	 */
+	public static String normalizeUrl(String url) {
+		return url.replaceAll("/+$", "");
+	}
+
 	/**
 	 * Util function to generate the player skin variants by contacting
 	 * skin-tool-python.
@@ -96,11 +217,22 @@ public class SkinToolApplication {
 		var request = HttpRequest.newBuilder(URI.create(skinToolPythonEndpoint + "/" + id))
 				.header("accept", "application/json").build();
 
+		var event = new PythonGenerateEvent();
+		event.begin();
 		try {
-			var response = client.send(request, BodyHandlers.ofString()).body();
-			return gson.fromJson(response, JsonObject.class);
+			var response = client.send(request, BodyHandlers.ofString());
+			event.bytes = response.body().length();
+			event.outcome = String.valueOf(response.statusCode());
+			return gson.fromJson(response.body(), JsonObject.class);
 		} catch (IOException | InterruptedException e) {
+			event.outcome = e.toString();
 			e.printStackTrace();
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				event.uuid = id;
+				event.commit();
+			}
 		}
 
 		return new JsonObject();
@@ -108,13 +240,15 @@ public class SkinToolApplication {
 
 	/**
 	 * 
-	 * Function that returns the string of an environment variable or blank.
+	 * Function that returns the string of an environment variable or blank. A
+	 * system property with the same key is used when the variable isn't set, so
+	 * tests can configure the application in-process.
 	 * 
 	 * @param key The key of the environment variable.
 	 * @return The value of the environment variable or blank.
 	 */
 	private static String getEnvOrEmpty(String key) {
-		return System.getenv(key) != null ? System.getenv(key) : "";
+		return System.getenv(key) != null ? System.getenv(key) : System.getProperty(key, "");
 	}
 
 }
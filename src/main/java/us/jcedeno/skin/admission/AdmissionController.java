@@ -0,0 +1,122 @@
+package us.jcedeno.skin.admission;
+
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import lombok.Getter;
+
+/**
+ * Limits how much work reaches skin-tool-python and the upload backlog. Calls
+ * over the limits are rejected with an {@link OverloadedException} carrying a
+ * Retry-After estimate based on how fast the work is currently draining.
+ * 
+ * @author jcedeno
+ */
+public class AdmissionController {
+    /** Retry-After estimates are clamped to this range, in seconds. */
+    private static final long MIN_RETRY_AFTER = 1, MAX_RETRY_AFTER = 3600;
+    /** How many times the smoothed drain interval a single sample may count as. */
+    private static final double MAX_DRAIN_SAMPLE = 4;
+    /** The share of python slots bulk calls leave free for interactive ones. */
+    private static final double INTERACTIVE_SHARE = 0.25;
+
+    private final Semaphore pythonPermits;
+    /** Caps the python slots bulk calls may hold, so a backfill can't take them all. */
+    private final Semaphore bulkPermits;
+    private final @Getter int maxPythonConcurrency;
+    private final @Getter int maxPendingUploads;
+
+    /** Smoothed duration of a python call, in milliseconds. */
+    private double pythonLatency = 1000;
+    /** Smoothed time between two players finishing their uploads, in milliseconds. */
+    private double drainInterval = 10_000;
+    private long lastDrain = System.currentTimeMillis();
+
+    public AdmissionController(int maxPythonConcurrency, int maxPendingUploads) {
+        this.pythonPermits = new Semaphore(maxPythonConcurrency, true);
+        var reserved = maxPythonConcurrency > 1 ? Math.max(1, (int) (maxPythonConcurrency * INTERACTIVE_SHARE)) : 0;
+        this.bulkPermits = new Semaphore(maxPythonConcurrency - reserved, true);
+        this.maxPythonConcurrency = maxPythonConcurrency;
+        this.maxPendingUploads = maxPendingUploads;
+    }
+
+    /**
+     * Runs a call to skin-tool-python within the concurrency limit. Calls that
+     * wait for a slot are bulk work and never hold all of them, the rest are
+     * kept for interactive calls.
+     * 
+     * @param wait       Whether to wait for a free slot, used for bulk work that
+     *                   was already admitted, or to reject the call right away.
+     * @param pythonCall The call to make.
+     * @return The result of the call.
+     * @throws OverloadedException If no slot is free and wait is false.
+     */
+    public <T> T callPython(boolean wait, Supplier<T> pythonCall) {
+        if (wait) {
+            bulkPermits.acquireUninterruptibly();
+            pythonPermits.acquireUninterruptibly();
+        } else if (!pythonPermits.tryAcquire()) {
+            throw new OverloadedException("Too many concurrent skin generations",
+                    clamp(pythonLatency / 1000 / maxPythonConcurrency));
+        }
+
+        var start = System.currentTimeMillis();
+        try {
+            return pythonCall.get();
+        } finally {
+            pythonPermits.release();
+            if (wait)
+                bulkPermits.release();
+            synchronized (this) {
+                pythonLatency = 0.8 * pythonLatency + 0.2 * (System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * Checks that the upload backlog has room for more players.
+     * 
+     * @param pending  The number of players currently waiting for an upload,
+     *                 being uploaded or backing off after a failed one.
+     * @param incoming The number of players about to be added.
+     * @throws OverloadedException If the backlog would grow past its limit.
+     */
+    public void admitUploads(int pending, int incoming) {
+        if (pending + incoming > maxPendingUploads) {
+            // Wait for enough of the backlog to drain to make room for the request.
+            var excess = pending + incoming - maxPendingUploads;
+            throw new OverloadedException("Upload backlog is full (" + pending + " pending)",
+                    clamp(excess * currentDrainInterval() / 1000));
+        }
+    }
+
+    /**
+     * Records that a player's skins finished uploading, used to estimate the
+     * drain rate of the backlog. The time since the last drain is clamped to a
+     * few times the current estimate, so the first drain after the backlog sat
+     * empty for a while doesn't inflate it.
+     */
+    public synchronized void recordDrained() {
+        var now = System.currentTimeMillis();
+        var sample = Math.min(now - lastDrain, MAX_DRAIN_SAMPLE * drainInterval);
+        drainInterval = 0.8 * drainInterval + 0.2 * sample;
+        lastDrain = now;
+    }
+
+    /**
+     * @return The estimated number of players drained from the backlog per second.
+     */
+    public double getDrainRate() {
+        return 1000 / currentDrainInterval();
+    }
+
+    private synchronized double currentDrainInterval() {
+        // If nothing drained for a while, the backlog drains at most that slowly.
+        return Math.max(drainInterval, System.currentTimeMillis() - lastDrain);
+    }
+
+    private static long clamp(double seconds) {
+        return Math.max(MIN_RETRY_AFTER, Math.min(MAX_RETRY_AFTER, (long) Math.ceil(seconds)));
+    }
+
+}
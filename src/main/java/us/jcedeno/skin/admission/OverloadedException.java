@@ -0,0 +1,20 @@
+package us.jcedeno.skin.admission;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a request is rejected by the {@link AdmissionController}. It is
+ * answered with a 429 status and a Retry-After header.
+ * 
+ * @author jcedeno
+ */
+public class OverloadedException extends RuntimeException {
+    /** How many seconds the caller should wait before trying again. */
+    private final @Getter long retryAfterSeconds;
+
+    public OverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+}
@@ -0,0 +1,20 @@
+package us.jcedeno.skin.cluster;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Registers the {@link ClusterInterceptor} with spring mvc.
+ * 
+ * @author jcedeno
+ */
+@Configuration
+public class ClusterConfiguration implements WebMvcConfigurer {
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new ClusterInterceptor());
+    }
+
+}
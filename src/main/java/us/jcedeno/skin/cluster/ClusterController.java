@@ -0,0 +1,286 @@
+package us.jcedeno.skin.cluster;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.common.collect.Iterables;
+import com.google.gson.Gson;
+
+import lombok.Getter;
+import us.jcedeno.skin.SkinToolApplication;
+import us.jcedeno.skin.controllers.SkinController;
+import us.jcedeno.skin.entities.Skin;
+import us.jcedeno.skin.uploader.UploaderTask;
+
+/**
+ * A controller for the partitioned mode of the application. Every node owns
+ * the players a {@link ConsistentHashRing} of the cluster members maps to it,
+ * and only keeps those in memory and uploads their skins. Requests for other
+ * players are redirected or forwarded to their owner.
+ * 
+ * Nodes are identified by their base url, and hand players off to each other
+ * through redis, which every node of a cluster must share. A membership change
+ * happens in two phases: every node first releases the players it no longer
+ * owns, and only once all of them confirmed it do the new owners load them.
+ * 
+ * @author jcedeno
+ */
+public class ClusterController {
+    /** Marks requests forwarded by another node, which are always served locally. */
+    public static final String FORWARDED_HEADER = "X-Skin-Tool-Forwarded";
+    private static final int VIRTUAL_NODES = 128;
+    /** How many players to flush to redis per round trip when handing them off. */
+    private static final int RELEASE_BATCH = 1000;
+    /** How long a forwarded request may take, before any time given per player. */
+    private static final Duration FORWARD_TIMEOUT = Duration.ofSeconds(30);
+    private static final Gson gson = new Gson();
+
+    private final @Getter String self;
+    private volatile ConsistentHashRing ring;
+    /** The ring from before the membership change in progress, null if there's none. */
+    private volatile ConsistentHashRing handingOff;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    /**
+     * @param self    The base url of this node, or null to own every player.
+     * @param members The base urls of every node of the cluster.
+     */
+    public ClusterController(String self, Collection<String> members) {
+        this.self = self;
+        this.ring = new ConsistentHashRing(members, VIRTUAL_NODES);
+    }
+
+    /**
+     * @return true if players are partitioned across nodes.
+     */
+    public boolean isEnabled() {
+        return self != null;
+    }
+
+    public List<String> getMembers() {
+        return ring.getNodes();
+    }
+
+    /**
+     * @param id The UUID of a player.
+     * @return The base url of the node owning the player.
+     */
+    public String ownerOf(UUID id) {
+        if (!isEnabled())
+            return self;
+        return ring.ownerOf(id);
+    }
+
+    /**
+     * @param id The UUID of a player.
+     * @return true if this node owns the player.
+     */
+    public boolean owns(UUID id) {
+        return !isEnabled() || self.equals(ring.ownerOf(id));
+    }
+
+    /**
+     * Sends the players owned by other nodes to their owners, each node getting
+     * a POST of its players' UUIDs.
+     * 
+     * @param ids    The UUIDs of the players.
+     * @param path   The path and query to post to.
+     * @param accept The media type to accept.
+     * @return The pending response of every node players were sent to.
+     */
+    public Map<String, CompletableFuture<HttpResponse<byte[]>>> forwardForeign(List<UUID> ids, String path,
+            String accept) {
+        return forwardForeign(ids, path, accept, Duration.ZERO);
+    }
+
+    /**
+     * Same as {@link #forwardForeign(List, String, String)}, for requests the
+     * owners work through player by player. Each node gets as much more time
+     * to answer as its share of the players needs.
+     * 
+     * @param perPlayer How much longer a node may take for every player sent
+     *                  to it.
+     */
+    public Map<String, CompletableFuture<HttpResponse<byte[]>>> forwardForeign(List<UUID> ids, String path,
+            String accept, Duration perPlayer) {
+        var foreign = new LinkedHashMap<String, List<UUID>>();
+        for (var id : ids) {
+            var owner = ownerOf(id);
+            if (owner != null && !owner.equals(self))
+                foreign.computeIfAbsent(owner, node -> new ArrayList<>()).add(id);
+        }
+
+        var responses = new LinkedHashMap<String, CompletableFuture<HttpResponse<byte[]>>>();
+        foreign.forEach((node, owned) -> responses.put(node, forward(node, "POST", path, accept, "application/json",
+                gson.toJson(owned), BodyHandlers.ofByteArray(), FORWARD_TIMEOUT.plus(perPlayer.multipliedBy(owned.size())))));
+        return responses;
+    }
+
+    /**
+     * Sends a request to another node, marked as forwarded so it's served there
+     * instead of being redirected again.
+     * 
+     * @param node   The base url of the node.
+     * @param method The http method.
+     * @param path   The path and query of the request.
+     * @param accept The media type to accept.
+     * @param body   The json body of the request, or null for none.
+     * @return The response of the node.
+     */
+    public CompletableFuture<HttpResponse<byte[]>> forward(String node, String method, String path, String accept,
+            String body) {
+        return forward(node, method, path, accept, "application/json", body, BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * Same as {@link #forward(String, String, String, String, String)}, with the
+     * given content type and response body handler.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> forward(String node, String method, String path, String accept,
+            String contentType, String body, BodyHandler<T> handler) {
+        return forward(node, method, path, accept, contentType, body, handler, FORWARD_TIMEOUT);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> forward(String node, String method, String path, String accept,
+            String contentType, String body, BodyHandler<T> handler, Duration timeout) {
+        var request = HttpRequest.newBuilder(URI.create(node + path)).timeout(timeout)
+                .header(FORWARDED_HEADER, self).header("Accept", accept).header("Content-Type", contentType)
+                .method(method, body == null ? BodyPublishers.noBody() : BodyPublishers.ofString(body)).build();
+        return client.sendAsync(request, handler);
+    }
+
+    /**
+     * Replaces the members of the cluster and rebalances this node in one go,
+     * see {@link #release} and {@link #acquire}. Only safe when no other node
+     * has to hand players off to this one.
+     * 
+     * @param members The base urls of every node of the cluster.
+     * @return How many players were dropped and loaded.
+     */
+    public Map<String, Integer> setMembers(Collection<String> members) {
+        var dropped = release(members);
+        var loaded = acquire();
+        return Map.of("dropped", dropped, "loaded", loaded);
+    }
+
+    /**
+     * The first phase of a membership change: replaces the members of the
+     * cluster and hands off the players this node no longer owns. Their latest
+     * collections are flushed to redis, and only dropped once the write is
+     * acknowledged and they didn't change meanwhile, so the new owners find them
+     * as soon as this returns. Until {@link #acquire} is called, players this
+     * node gained are fetched on demand, see {@link #adopt}.
+     * 
+     * @param members The base urls of every node of the cluster.
+     * @return How many players were dropped.
+     */
+    public synchronized int release(Collection<String> members) {
+        // Keep the ring from before the first of overlapping changes.
+        if (handingOff == null)
+            handingOff = ring;
+        ring = new ConsistentHashRing(members, VIRTUAL_NODES);
+
+        var map = SkinController.getSkinCollectionMap();
+        var persistence = SkinToolApplication.getPersistenceController();
+        var dropped = 0;
+        var pending = new LinkedHashMap<UUID, List<Skin>>();
+        for (var entry : map.entrySet()) {
+            if (!owns(entry.getKey()))
+                pending.put(entry.getKey(), entry.getValue());
+        }
+        while (!pending.isEmpty()) {
+            var changed = new LinkedHashMap<UUID, List<Skin>>();
+            for (var batch : Iterables.partition(pending.entrySet(), RELEASE_BATCH)) {
+                var collections = new LinkedHashMap<UUID, List<Skin>>();
+                batch.forEach(entry -> collections.put(entry.getKey(), entry.getValue()));
+                persistence.flushAll(collections);
+
+                for (var entry : collections.entrySet()) {
+                    var id = entry.getKey();
+                    if (map.remove(id, entry.getValue())) {
+                        SkinController.invalidateResponses(id);
+                        UploaderTask.getSignatureNotifier().forget(id);
+                        persistence.evict(id);
+                        dropped++;
+                    } else {
+                        // Changed while it was flushed, flush the new version too.
+                        var current = map.get(id);
+                        if (current != null)
+                            changed.put(id, current);
+                    }
+                }
+            }
+            pending = changed;
+        }
+
+        System.out.println("Cluster members changed to " + ring.getNodes() + ", dropped " + dropped
+                + " skin collections.");
+        return dropped;
+    }
+
+    /**
+     * The second phase of a membership change, once every node has released the
+     * players it no longer owns: loads the players this node now owns from the
+     * masters.
+     * 
+     * @return How many players were loaded.
+     */
+    public synchronized int acquire() {
+        var loaded = SkinToolApplication.getPersistenceController().load(SkinController.getSkinCollectionMap(),
+                this::owns, true);
+        handingOff = null;
+
+        System.out.println("Loaded " + loaded + " skin collections handed off to this node.");
+        return loaded;
+    }
+
+    /**
+     * Fetches a player this node owns but doesn't have, while a membership change
+     * is between its two phases. The player is asked from its previous owner,
+     * which may not have released it yet, and then from the persistence tiers,
+     * where it is once released.
+     * 
+     * @param id The UUID of the player.
+     * @return The player's collection, or null if this node doesn't own it, no
+     *         hand-off is in progress or the player isn't stored anywhere.
+     */
+    public List<Skin> adopt(UUID id) {
+        var previous = handingOff;
+        if (previous == null || !owns(id))
+            return null;
+        var from = previous.ownerOf(id);
+        if (from == null || from.equals(self))
+            return null;
+
+        var map = SkinController.getSkinCollectionMap();
+        try {
+            var response = forward(from, "GET", "/skin/get/" + id, "application/json", null).join();
+            if (response.statusCode() == 200 && response.body().length > 0) {
+                var skins = List.of(gson.fromJson(new String(response.body(), StandardCharsets.UTF_8), Skin[].class));
+                var existing = map.putIfAbsent(id, skins);
+                if (existing != null)
+                    return existing;
+                SkinToolApplication.getPersistenceController().save(id, skins);
+                return skins;
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Couldn't fetch " + id + " from " + from + ": " + e);
+        }
+        return SkinToolApplication.getPersistenceController().loadPlayer(map, id);
+    }
+
+}
@@ -0,0 +1,57 @@
+package us.jcedeno.skin.cluster;
+
+import java.util.Map;
+import java.util.UUID;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import us.jcedeno.skin.SkinToolApplication;
+
+/**
+ * Redirects requests for a single player, those with an {@code {id}} path
+ * variable, to the node owning the player with a 307 so the method and body are
+ * kept. Requests forwarded by another node are always served locally.
+ * 
+ * @author jcedeno
+ */
+public class ClusterInterceptor implements HandlerInterceptor {
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        var cluster = SkinToolApplication.getClusterController();
+        // Async dispatches of long-polls and streams were already routed.
+        if (!cluster.isEnabled() || request.getDispatcherType() != DispatcherType.REQUEST
+                || request.getHeader(ClusterController.FORWARDED_HEADER) != null)
+            return true;
+
+        @SuppressWarnings("unchecked")
+        var variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (variables == null || !variables.containsKey("id"))
+            return true;
+
+        UUID id;
+        try {
+            id = UUID.fromString(variables.get("id"));
+        } catch (IllegalArgumentException e) {
+            // Let the handler reject it.
+            return true;
+        }
+
+        var owner = cluster.ownerOf(id);
+        if (owner == null || owner.equals(cluster.getSelf()))
+            return true;
+
+        var query = request.getQueryString();
+        response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+        response.setHeader(HttpHeaders.LOCATION, owner + request.getRequestURI() + (query != null ? "?" + query : ""));
+        return false;
+    }
+
+}
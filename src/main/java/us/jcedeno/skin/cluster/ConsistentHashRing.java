@@ -0,0 +1,53 @@
+package us.jcedeno.skin.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import lombok.Getter;
+
+/**
+ * An immutable consistent-hash ring mapping player UUIDs to the nodes that own
+ * them. Every node is placed on the ring at a number of virtual points, so
+ * ownership is spread evenly and adding or removing a node only moves the
+ * players between it and its neighbours.
+ * 
+ * @author jcedeno
+ */
+public class ConsistentHashRing {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+    private final @Getter List<String> nodes;
+
+    /**
+     * @param nodes        The nodes of the ring.
+     * @param virtualNodes How many points each node gets on the ring.
+     */
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        // Sorted, so every node builds the same ring from the same members.
+        this.nodes = nodes.stream().distinct().sorted().toList();
+        for (var node : this.nodes)
+            for (var i = 0; i < virtualNodes; i++)
+                points.putIfAbsent(HASH.hashString(node + "#" + i, StandardCharsets.UTF_8).asLong(), node);
+    }
+
+    /**
+     * @param id The UUID of a player.
+     * @return The node owning the player, or null if the ring is empty.
+     */
+    public String ownerOf(UUID id) {
+        if (points.isEmpty())
+            return null;
+        var hash = HASH.newHasher().putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits())
+                .hash().asLong();
+        var owner = points.ceilingEntry(hash);
+        return owner != null ? owner.getValue() : points.firstEntry().getValue();
+    }
+
+}
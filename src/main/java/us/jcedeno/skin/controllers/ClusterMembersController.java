@@ -0,0 +1,113 @@
+package us.jcedeno.skin.controllers;
+
+import java.net.http.HttpResponse;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import us.jcedeno.skin.SkinToolApplication;
+import us.jcedeno.skin.cluster.ClusterController;
+
+/**
+ * The rest controller of the cluster membership, used to add and remove nodes
+ * while the cluster is running.
+ * 
+ * @author jcedeno
+ */
+@RestController
+public class ClusterMembersController {
+    private static final String RELEASE = "release", ACQUIRE = "acquire";
+
+    @GetMapping("/cluster/members")
+    public Map<String, Object> getMembers() {
+        var cluster = SkinToolApplication.getClusterController();
+        if (!cluster.isEnabled())
+            return Map.of("partitioned", false);
+        return Map.of("partitioned", true, "self", cluster.getSelf(), "members", cluster.getMembers());
+    }
+
+    /**
+     * Replaces the members of the cluster and rebalances it. Unless the request
+     * was forwarded by another node, this node coordinates the change in two
+     * phases: every old and new member releases the players it no longer owns,
+     * and once all of them confirmed, every member loads the players it now owns.
+     * A member that couldn't confirm its release is still told to load, players
+     * it held may then be loaded stale.
+     * 
+     * @param members The base urls of every node of the cluster.
+     * @param phase   The phase a forwarded request belongs to, release or
+     *                acquire.
+     * @return How many players this node dropped and loaded.
+     */
+    @PutMapping("/cluster/members")
+    public Map<String, Integer> setMembers(@RequestBody List<String> members,
+            @RequestParam(value = "phase", required = false) String phase,
+            @RequestHeader(value = ClusterController.FORWARDED_HEADER, required = false) String forwardedBy) {
+        var cluster = SkinToolApplication.getClusterController();
+        if (!cluster.isEnabled())
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "This node isn't running partitioned");
+        if (members.isEmpty())
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A cluster needs at least one member");
+
+        var normalized = members.stream().map(SkinToolApplication::normalizeUrl).distinct().toList();
+        if (forwardedBy != null) {
+            if (RELEASE.equals(phase))
+                return Map.of("dropped", cluster.release(normalized));
+            if (ACQUIRE.equals(phase)) {
+                // Also release, in case the release phase never reached this node.
+                var dropped = cluster.release(normalized);
+                return Map.of("dropped", dropped, "loaded", cluster.acquire());
+            }
+            return cluster.setMembers(normalized);
+        }
+
+        var notify = new LinkedHashSet<>(cluster.getMembers());
+        notify.addAll(normalized);
+        notify.remove(cluster.getSelf());
+
+        var dropped = cluster.release(normalized);
+        sendPhase(notify, RELEASE, normalized);
+        var loaded = cluster.acquire();
+        sendPhase(notify, ACQUIRE, normalized);
+
+        return Map.of("dropped", dropped, "loaded", loaded);
+    }
+
+    /**
+     * Passes a phase of a membership change on to the given nodes and waits for
+     * all of them to answer.
+     */
+    private static void sendPhase(Collection<String> nodes, String phase, List<String> members) {
+        var cluster = SkinToolApplication.getClusterController();
+        var body = SkinToolApplication.getGson().toJson(members);
+        var responses = new LinkedHashMap<String, CompletableFuture<HttpResponse<byte[]>>>();
+        for (var node : nodes)
+            responses.put(node, cluster.forward(node, "PUT", "/cluster/members?phase=" + phase,
+                    MediaType.APPLICATION_JSON_VALUE, body));
+
+        responses.forEach((node, response) -> {
+            try {
+                var status = response.join().statusCode();
+                if (status != HttpStatus.OK.value())
+                    System.out.println("Node " + node + " answered " + status + " to the " + phase + " phase.");
+            } catch (CompletionException e) {
+                System.out.println("Couldn't pass the " + phase + " phase on to " + node + ": " + e.getCause());
+            }
+        });
+    }
+
+}
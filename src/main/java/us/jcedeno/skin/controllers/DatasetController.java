@@ -0,0 +1,279 @@
+package us.jcedeno.skin.controllers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import us.jcedeno.skin.SkinToolApplication;
+import us.jcedeno.skin.admission.OverloadedException;
+import us.jcedeno.skin.cluster.ClusterController;
+import us.jcedeno.skin.entities.Skin;
+import us.jcedeno.skin.uploader.Priority;
+import us.jcedeno.skin.uploader.SignatureNotifier;
+import us.jcedeno.skin.uploader.UploaderTask;
+
+/**
+ * The rest controller for moving the whole dataset between environments. Both
+ * directions stream newline-delimited json, one {@code {"id", "skins"}} object
+ * per player in the persisted format, so memory use doesn't grow with the size
+ * of the dataset. An export ends with a {@code {"complete": true, "players": n}}
+ * trailer, so a truncated one can be told apart from a complete one.
+ * 
+ * @author jcedeno
+ */
+@RestController
+public class DatasetController {
+    /** How many collections to import per batched write. */
+    private static final int IMPORT_BATCH = 1000;
+    /** The field marking the trailer of an export. */
+    private static final String TRAILER = "complete";
+    private static final Gson gson = new Gson();
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+    private static final TypeReference<Map<String, Integer>> FORWARDED_COUNTS = new TypeReference<>() {
+    };
+
+    /**
+     * Streams every stored collection, followed in partitioned mode by those of
+     * every other node, and then the trailer with the total number of players.
+     * If a node fails partway through the stream is cut short without a
+     * trailer.
+     */
+    @GetMapping(path = "/skin/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportSkins(
+            @RequestHeader(value = ClusterController.FORWARDED_HEADER, required = false) String forwardedBy) {
+        var cluster = SkinToolApplication.getClusterController();
+        var others = forwardedBy != null || !cluster.isEnabled() ? List.<String>of()
+                : cluster.getMembers().stream().filter(node -> !node.equals(cluster.getSelf())).toList();
+
+        StreamingResponseBody body = output -> {
+            var writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            var players = 0L;
+            for (var entry : SkinController.getSkinCollectionMap().entrySet()) {
+                var line = new JsonObject();
+                line.addProperty("id", entry.getKey().toString());
+                line.add("skins", gson.toJsonTree(entry.getValue()));
+                gson.toJson(line, writer);
+                writer.write('\n');
+                players++;
+            }
+
+            // Pass the other nodes' exports through, holding back their trailers.
+            for (var node : others) {
+                HttpResponse<InputStream> response;
+                try {
+                    response = cluster.forward(node, "GET", "/skin/export", MediaType.APPLICATION_NDJSON_VALUE,
+                            MediaType.APPLICATION_JSON_VALUE, null, BodyHandlers.ofInputStream()).join();
+                } catch (CompletionException e) {
+                    throw new IOException("Couldn't reach " + node, e.getCause());
+                }
+                try (var input = response.body()) {
+                    if (response.statusCode() != HttpStatus.OK.value())
+                        throw new IOException("Node " + node + " answered " + response.statusCode());
+                    var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+                    var complete = false;
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isBlank())
+                            continue;
+                        if (isTrailer(line)) {
+                            players += JsonParser.parseString(line).getAsJsonObject().get("players").getAsLong();
+                            complete = true;
+                            break;
+                        }
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                    if (!complete)
+                        throw new IOException("Export of node " + node + " was cut short");
+                }
+            }
+
+            var trailer = new JsonObject();
+            trailer.addProperty(TRAILER, true);
+            trailer.addProperty("players", players);
+            gson.toJson(trailer, writer);
+            writer.write('\n');
+            writer.flush();
+        };
+
+        return ResponseEntity.ok().header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=skins.ndjson")
+                .body(body);
+    }
+
+    /**
+     * Imports collections written by {@link #exportSkins}, keeping their
+     * signatures. Players already stored are left as they are, and unsigned
+     * skins are queued for upload as bulk work. In partitioned mode the players
+     * owned by other nodes are sent to them in batches.
+     * 
+     * A batch that would grow the upload backlog past its limit rejects the
+     * import with 429. Earlier batches stay imported and are skipped when the
+     * import is retried, so a retry after the Retry-After delay picks up where
+     * the import stopped.
+     * 
+     * @param input The newline-delimited collections.
+     * @return How many players were imported, skipped as already stored, or
+     *         rejected as invalid.
+     * @throws OverloadedException If the upload backlog has no room for a batch.
+     */
+    @PostMapping("/skin/import")
+    public Map<String, Integer> importSkins(InputStream input,
+            @RequestHeader(value = ClusterController.FORWARDED_HEADER, required = false) String forwardedBy)
+            throws IOException {
+        var cluster = SkinToolApplication.getClusterController();
+        var counts = new LinkedHashMap<String, Integer>();
+        for (var outcome : List.of("imported", "skipped", "invalid"))
+            counts.put(outcome, 0);
+
+        var batch = new LinkedHashMap<UUID, List<Skin>>();
+        var foreign = new HashMap<String, List<String>>();
+        var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank() || isTrailer(line))
+                continue;
+
+            UUID id;
+            List<Skin> skins;
+            try {
+                var object = JsonParser.parseString(line).getAsJsonObject();
+                id = UUID.fromString(object.get("id").getAsString());
+                skins = List.of(gson.fromJson(object.get("skins"), Skin[].class));
+            } catch (RuntimeException e) {
+                counts.merge("invalid", 1, Integer::sum);
+                continue;
+            }
+            if (skins.isEmpty()
+                    || skins.stream().anyMatch(skin -> skin.getName() == null || skin.getValue() == null)) {
+                counts.merge("invalid", 1, Integer::sum);
+                continue;
+            }
+
+            if (forwardedBy == null && !cluster.owns(id)) {
+                var owner = cluster.ownerOf(id);
+                var lines = foreign.computeIfAbsent(owner, node -> new ArrayList<>());
+                lines.add(line);
+                if (lines.size() >= IMPORT_BATCH)
+                    forwardImport(owner, lines, counts);
+                continue;
+            }
+
+            batch.put(id, skins);
+            if (batch.size() >= IMPORT_BATCH)
+                importBatch(batch, counts);
+        }
+        importBatch(batch, counts);
+        for (var entry : foreign.entrySet())
+            forwardImport(entry.getKey(), entry.getValue(), counts);
+
+        return counts;
+    }
+
+    /**
+     * Answers imports rejected by admission control, here or on the node a batch
+     * was sent to, with 429 and a Retry-After header.
+     */
+    @ExceptionHandler(OverloadedException.class)
+    public ResponseEntity<String> overloaded(OverloadedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds())).body(e.getMessage());
+    }
+
+    /**
+     * @return true if the line is the trailer of an export rather than a player.
+     */
+    private static boolean isTrailer(String line) {
+        // Cheap check first, player lines never carry the field.
+        if (!line.contains("\"" + TRAILER + "\""))
+            return false;
+        try {
+            var object = JsonParser.parseString(line).getAsJsonObject();
+            return object.has(TRAILER) && !object.has("id");
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stores a batch of imported collections with one persistence write, and
+     * clears it.
+     * 
+     * @throws OverloadedException If the upload backlog has no room for the
+     *                             batch's unsigned players.
+     */
+    private static void importBatch(Map<UUID, List<Skin>> batch, Map<String, Integer> counts) {
+        var map = SkinController.getSkinCollectionMap();
+        var unsigned = (int) batch.entrySet().stream()
+                .filter(entry -> !map.containsKey(entry.getKey()) && !SignatureNotifier.isSigned(entry.getValue()))
+                .count();
+        SkinToolApplication.getAdmissionController().admitUploads(UploaderTask.getBacklogSize(), unsigned);
+
+        var imported = new LinkedHashMap<UUID, List<Skin>>();
+        batch.forEach((id, skins) -> {
+            if (map.putIfAbsent(id, skins) != null) {
+                counts.merge("skipped", 1, Integer::sum);
+                return;
+            }
+            SkinController.invalidateResponses(id);
+            imported.put(id, skins);
+        });
+
+        SkinToolApplication.getPersistenceController().saveAll(imported);
+        imported.forEach((id, skins) -> {
+            if (!SignatureNotifier.isSigned(skins))
+                UploaderTask.getUploadQueue().offer(id, Priority.BULK);
+        });
+        counts.merge("imported", imported.size(), Integer::sum);
+        batch.clear();
+    }
+
+    /**
+     * Sends a batch of imported lines to the node owning them, and clears it.
+     */
+    private static void forwardImport(String node, List<String> lines, Map<String, Integer> counts) {
+        if (lines.isEmpty())
+            return;
+        var response = SkinToolApplication.getClusterController().forward(node, "POST", "/skin/import",
+                MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, String.join("\n", lines),
+                BodyHandlers.ofByteArray());
+        try {
+            jsonMapper.readValue(SkinController.awaitForwarded(node, response), FORWARDED_COUNTS)
+                    .forEach((outcome, count) -> counts.merge(outcome, count, Integer::sum));
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Bad response from " + node, e);
+        }
+        lines.clear();
+    }
+
+}
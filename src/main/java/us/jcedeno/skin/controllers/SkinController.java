@@ -1,22 +1,55 @@
 package us.jcedeno.skin.controllers;
 
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.util.UriUtils;
 
 import lombok.Getter;
 import us.jcedeno.skin.SkinToolApplication;
+import us.jcedeno.skin.admission.OverloadedException;
+import us.jcedeno.skin.cluster.ClusterController;
+import us.jcedeno.skin.entities.BinarySkin;
 import us.jcedeno.skin.entities.Skin;
+import us.jcedeno.skin.png.PngCanonicalizer;
+import us.jcedeno.skin.uploader.Priority;
+import us.jcedeno.skin.uploader.SignatureNotifier;
+import us.jcedeno.skin.uploader.UploaderTask;
 
 /**
  * The rest skin controller. Allows interaction with users skin collections and
@@ -27,16 +60,292 @@ import us.jcedeno.skin.entities.Skin;
 @RestController
 public class SkinController {
     private static volatile @Getter ConcurrentHashMap<UUID, List<Skin>> skinCollectionMap = new ConcurrentHashMap<>();
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+    private static final ObjectMapper cborMapper = new CBORMapper();
+    private static final SkinResponseCache jsonResponses = new SkinResponseCache(jsonMapper, skins -> skins);
+    private static final SkinResponseCache cborResponses = new SkinResponseCache(cborMapper, BinarySkin::of);
+
+    private static final TypeReference<Map<UUID, List<Object>>> FORWARDED_BATCH = new TypeReference<>() {
+    };
+    private static final TypeReference<List<Object>> FORWARDED_LIST = new TypeReference<>() {
+    };
+    private static final TypeReference<Map<String, Integer>> FORWARDED_COUNTS = new TypeReference<>() {
+    };
+
+    /**
+     * How long the owner of forwarded players may take per player to generate
+     * or refresh them, on top of the usual timeout. Generations share a few
+     * python slots, and refreshes are paced by the session server lookups.
+     */
+    private static final Duration ADD_TIME_PER_PLAYER = Duration.ofSeconds(1);
+    private static final Duration REFRESH_TIME_PER_PLAYER = Duration.ofSeconds(3);
+
+    /** Media type of the binary wire format. */
+    public static final String APPLICATION_CBOR = "application/cbor";
 
+    /**
+     * Returns a player's collection from the pre-serialized response cache. The
+     * response carries a strong ETag, so a matching If-None-Match is answered
+     * with 304, and is sent gzipped to clients that accept it.
+     */
     @GetMapping("/skin/get/{id}")
-    public Optional<List<Skin>> getSkins(@PathVariable("id") UUID id) {
+    public ResponseEntity<byte[]> getSkins(@PathVariable("id") UUID id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return cachedResponse(jsonResponses, MediaType.APPLICATION_JSON, id, ifNoneMatch, acceptEncoding);
+    }
 
-        var skinList = skinCollectionMap.get(id);
+    /** Same as {@link #getSkins}, in the binary wire format. */
+    @GetMapping(path = "/skin/get/{id}", produces = APPLICATION_CBOR)
+    public ResponseEntity<byte[]> getSkinsBinary(@PathVariable("id") UUID id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return cachedResponse(cborResponses, MediaType.parseMediaType(APPLICATION_CBOR), id, ifNoneMatch,
+                acceptEncoding);
+    }
+
+    private static ResponseEntity<byte[]> cachedResponse(SkinResponseCache cache, MediaType contentType, UUID id,
+            String ifNoneMatch, String acceptEncoding) {
+        var skinList = collectionOf(id);
         if (skinList == null) {
-            return Optional.empty();
+            return ResponseEntity.ok().build();
         }
 
-        return Optional.ofNullable(skinList);
+        var cached = cache.get(id, skinList);
+        var gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        var notModified = cached.matches(ifNoneMatch);
+        var response = ResponseEntity.status(notModified ? HttpStatus.NOT_MODIFIED : HttpStatus.OK)
+                .eTag(gzip ? cached.gzipEtag() : cached.etag())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+
+        if (notModified)
+            return response.build();
+        if (gzip)
+            return response.contentType(contentType).header(HttpHeaders.CONTENT_ENCODING, "gzip").body(cached.gzip());
+        return response.contentType(contentType).body(cached.body());
+    }
+
+    /**
+     * Serves a texture that is being handed to mineskin by url. Textures are
+     * content-addressed, so they can be cached forever.
+     */
+    @GetMapping(path = "/skin/png/{hash}", produces = MediaType.IMAGE_PNG_VALUE)
+    public ResponseEntity<byte[]> getTexture(@PathVariable("hash") String hash,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        var png = UploaderTask.getTextureRegistry().get(hash);
+        if (png == null)
+            return ResponseEntity.notFound().build();
+
+        var notModified = ifNoneMatch != null && ifNoneMatch.contains(hash);
+        var response = ResponseEntity.status(notModified ? HttpStatus.NOT_MODIFIED : HttpStatus.OK).eTag(hash)
+                .header(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000, immutable");
+        return notModified ? response.build() : response.body(png);
+    }
+
+    /**
+     * @return A player's collection, fetching it from its previous owner if it
+     *         was handed off to this node and not loaded yet, or null if there
+     *         is none.
+     */
+    private static List<Skin> collectionOf(UUID id) {
+        var skinList = skinCollectionMap.get(id);
+        return skinList != null ? skinList : SkinToolApplication.getClusterController().adopt(id);
+    }
+
+    /**
+     * Drops the cached responses of a player, freeing them as soon as the
+     * player's collection changes instead of on the next read.
+     * 
+     * @param id The UUID of the player.
+     */
+    public static void invalidateResponses(UUID id) {
+        jsonResponses.invalidate(id);
+        cborResponses.invalidate(id);
+    }
+
+    /**
+     * Returns the collections of many players in one round trip. Unknown players
+     * are left out of the response. In partitioned mode the players owned by
+     * other nodes are fetched from them.
+     * 
+     * @param ids    The UUIDs of the players.
+     * @param fields The skin fields to include (name, value, signature, slim), or
+     *               all of them if omitted.
+     * @return The known collections keyed by player UUID.
+     */
+    @PostMapping("/skin/get-batch")
+    public Map<UUID, List<?>> getSkinsBatch(@RequestBody List<UUID> ids,
+            @RequestParam(value = "fields", required = false) Set<String> fields,
+            @RequestHeader(value = ClusterController.FORWARDED_HEADER, required = false) String forwardedBy) {
+        return getBatch(ids, fields, forwardedBy, jsonMapper, MediaType.APPLICATION_JSON_VALUE,
+                skins -> fields == null ? skins : skins.stream().map(skin -> skin.project(fields)).toList());
+    }
+
+    /** Same as {@link #getSkinsBatch}, in the binary wire format. */
+    @PostMapping(path = "/skin/get-batch", produces = APPLICATION_CBOR)
+    public Map<UUID, List<?>> getSkinsBatchBinary(@RequestBody List<UUID> ids,
+            @RequestParam(value = "fields", required = false) Set<String> fields,
+            @RequestHeader(value = ClusterController.FORWARDED_HEADER, required = false) String forwardedBy) {
+        return getBatch(ids, fields, forwardedBy, cborMapper, APPLICATION_CBOR, skins -> fields == null
+                ? BinarySkin.of(skins) : skins.stream().map(skin -> BinarySkin.project(skin, fields)).toList());
+    }
+
+    private static Map<UUID, List<?>> getBatch(List<UUID> ids, Set<String> fields, String forwardedBy,
+            ObjectMapper mapper, String mediaType, Function<List<Skin>, List<?>> view) {
+        if (fields != null && !Skin.FIELDS.containsAll(fields))
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown fields, expected any of " + Skin.FIELDS);
+
+        // Ask the owners of the other players for theirs meanwhile.
+        var forwarded = forwardedBy != null ? Map.<String, CompletableFuture<HttpResponse<byte[]>>>of()
+                : SkinToolApplication.getClusterController().forwardForeign(ids,
+                        "/skin/get-batch" + (fields == null ? "" : "?fields=" + String.join(",", fields)), mediaType);
+
+        var found = new HashMap<UUID, List<?>>();
+        for (var id : ids) {
+            var skinList = collectionOf(id);
+            if (skinList != null)
+                found.put(id, view.apply(skinList));
+        }
+        forwarded.forEach((node, response) -> {
+            try {
+                found.putAll(mapper.readValue(awaitForwarded(node, response), FORWARDED_BATCH));
+            } catch (IOException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Bad response from " + node, e);
+            }
+        });
+
+        // Keep the order of the request.
+        var result = new LinkedHashMap<UUID, List<?>>();
+        for (var id : ids) {
+            var skins = found.get(id);
+            if (skins != null)
+                result.put(id, skins);
+        }
+
+        return result;
+    }
+
+    /**
+     * Waits for the response of a request forwarded to another node, passing on
+     * its admission rejections.
+     * 
+     * @return The body of the response.
+     */
+    static byte[] awaitForwarded(String node, CompletableFuture<HttpResponse<byte[]>> pending) {
+        HttpResponse<byte[]> response;
+        try {
+            response = pending.join();
+        } catch (CompletionException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Couldn't reach " + node, e.getCause());
+        }
+        if (response.statusCode() == HttpStatus.TOO_MANY_REQUESTS.value())
+            throw new OverloadedException("Node " + node + " is overloaded",
+                    response.headers().firstValueAsLong(HttpHeaders.RETRY_AFTER).orElse(1));
+        if (response.statusCode() == HttpStatus.PAYLOAD_TOO_LARGE.value())
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "Node " + node + " can't take its share of the batch at once");
+        if (response.statusCode() != HttpStatus.OK.value())
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY,
+                    "Node " + node + " answered " + response.statusCode());
+        return response.body();
+    }
+
+    /**
+     * Long-polls for a player's skins to be signed. The request is held open until
+     * the uploader has signed every skin of the player or the timeout passes, in
+     * which case the collection is returned as it currently is.
+     * 
+     * @param id      The UUID of the player.
+     * @param timeout How many seconds to wait at most, capped at a minute.
+     */
+    @GetMapping("/skin/await/{id}")
+    public DeferredResult<List<Skin>> awaitSkins(@PathVariable("id") UUID id,
+            @RequestParam(value = "timeout", defaultValue = "30") long timeout) {
+        var result = new DeferredResult<List<Skin>>(clampTimeout(timeout));
+
+        var future = awaitSignatures(id);
+        if (future == null) {
+            result.setResult(skinCollectionMap.get(id));
+            return result;
+        }
+
+        future.thenAccept(result::setResult);
+        result.onTimeout(() -> result.setResult(skinCollectionMap.get(id)));
+
+        return result;
+    }
+
+    /**
+     * Streams a player's skins as server-sent events: a {@code pending} event with
+     * the current collection, then a {@code signed} event once the uploader has
+     * signed every skin. Unknown players get a single {@code missing} event.
+     * 
+     * @param id      The UUID of the player.
+     * @param timeout How many seconds to keep the stream open at most, capped at a
+     *                minute.
+     */
+    @GetMapping(path = "/skin/stream/{id}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamSkins(@PathVariable("id") UUID id,
+            @RequestParam(value = "timeout", defaultValue = "30") long timeout) {
+        var emitter = new SseEmitter(clampTimeout(timeout));
+
+        var future = awaitSignatures(id);
+        try {
+            if (future == null) {
+                sendFinalEvent(emitter, id, skinCollectionMap.get(id));
+            } else {
+                emitter.send(SseEmitter.event().name("pending").data(skinCollectionMap.get(id)));
+                future.thenAccept(signed -> {
+                    try {
+                        sendFinalEvent(emitter, id, signed);
+                    } catch (IOException | IllegalStateException e) {
+                        // The client left or the stream timed out before the skins were signed.
+                        emitter.completeWithError(e);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+
+        return emitter;
+    }
+
+    private static void sendFinalEvent(SseEmitter emitter, UUID id, List<Skin> skinList) throws IOException {
+        if (skinList == null)
+            emitter.send(SseEmitter.event().name("missing").data(id));
+        else
+            emitter.send(SseEmitter.event().name("signed").data(skinList));
+        emitter.complete();
+    }
+
+    /**
+     * Registers a waiter on a player's unsigned skins and promotes their upload,
+     * since someone is now waiting on them.
+     * 
+     * @param id The UUID of the player.
+     * @return The future completed once the skins are signed, or null if the
+     *         player is unknown or already signed.
+     */
+    private static CompletableFuture<List<Skin>> awaitSignatures(UUID id) {
+        var skinList = skinCollectionMap.get(id);
+        if (skinList == null || SignatureNotifier.isSigned(skinList))
+            return null;
+
+        var future = UploaderTask.getSignatureNotifier().awaitSigned(id);
+        UploaderTask.getUploadQueue().offer(id, Priority.INTERACTIVE);
+
+        // The uploader may have finished before we registered.
+        skinList = skinCollectionMap.get(id);
+        if (skinList == null || SignatureNotifier.isSigned(skinList))
+            UploaderTask.getSignatureNotifier().signed(id, skinList);
+
+        return future;
+    }
+
+    /** Converts a requested timeout in seconds to milliseconds, capped at a minute. */
+    private static long clampTimeout(long seconds) {
+        return Math.max(1, Math.min(seconds, 60)) * 1000;
     }
 
     @DeleteMapping("/skin/delete/{id}")
@@ -47,44 +356,211 @@ public class SkinController {
             return Optional.empty();
         }
         skinCollectionMap.remove(id);
+        invalidateResponses(id);
+        UploaderTask.getSignatureNotifier().forget(id);
         // Delete on backend
-        SkinToolApplication.getCacheController().getRedisConnection().async().hdel("skins", id.toString());
+        SkinToolApplication.getPersistenceController().delete(id);
         return Optional.ofNullable(skinList);
     }
 
     @GetMapping("/skin/get-all/{variant}")
-    public Optional<List<Skin>> getAllVariants(@PathVariable("variant") String variant) {
+    public Optional<List<Object>> getAllVariants(@PathVariable("variant") String variant,
+            @RequestHeader(value = ClusterController.FORWARDED_HEADER, required = false) String forwardedBy) {
+
+        // In partitioned mode every node has a share of the skins.
+        var cluster = SkinToolApplication.getClusterController();
+        var forwarded = new LinkedHashMap<String, CompletableFuture<HttpResponse<byte[]>>>();
+        if (forwardedBy == null && cluster.isEnabled())
+            for (var node : cluster.getMembers())
+                if (!node.equals(cluster.getSelf()))
+                    forwarded.put(node, cluster.forward(node, "GET", "/skin/get-all/"
+                            + UriUtils.encodePathSegment(variant, StandardCharsets.UTF_8),
+                            MediaType.APPLICATION_JSON_VALUE, null));
 
-        var list = new ArrayList<Skin>();
+        var list = new ArrayList<Object>();
 
         for (var entry : skinCollectionMap.entrySet())
             for (var skin : entry.getValue())
                 if (skin.getName().equalsIgnoreCase(variant))
                     list.add(skin);
 
+        forwarded.forEach((node, response) -> {
+            var body = awaitForwarded(node, response);
+            if (body.length == 0)
+                return;
+            try {
+                list.addAll(jsonMapper.readValue(body, FORWARDED_LIST));
+            } catch (IOException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Bad response from " + node, e);
+            }
+        });
+
         return list.isEmpty() ? Optional.empty() : Optional.ofNullable(list);
 
     }
 
+    /**
+     * Returns a player's collection, generating it if needed.
+     * 
+     * @param id      The UUID of the player.
+     * @param refresh Whether to regenerate the collection if the player changed
+     *                skin since it was generated.
+     */
     @PutMapping("/skin/create/{id}")
-    public List<Skin> generateSkins(@PathVariable("id") UUID id) {
+    public List<Skin> generateSkins(@PathVariable("id") UUID id,
+            @RequestParam(value = "refresh", defaultValue = "false") boolean refresh) {
+        return generateSkins(id, Priority.INTERACTIVE, refresh ? currentSource(id, true) : null);
+    }
+
+    /** Same as {@link #generateSkins(UUID, boolean)}, in the binary wire format. */
+    @PutMapping(path = "/skin/create/{id}", produces = APPLICATION_CBOR)
+    public List<BinarySkin> generateSkinsBinary(@PathVariable("id") UUID id,
+            @RequestParam(value = "refresh", defaultValue = "false") boolean refresh) {
+        var skins = generateSkins(id, Priority.INTERACTIVE, refresh ? currentSource(id, true) : null);
+        return skins == null ? null : BinarySkin.of(skins);
+    }
+
+    /**
+     * Regenerates the collections of the given players that changed skin since
+     * theirs were generated, as bulk work. Checking a player costs a single
+     * session server lookup, so this is cheap to call periodically.
+     * 
+     * @param ids The UUIDs of the players.
+     * @return How many players were unchanged, regenerated, not stored, couldn't
+     *         be looked up or failed to regenerate.
+     */
+    @PostMapping("/skin/refresh")
+    public Map<String, Integer> refreshSkins(@RequestBody List<UUID> ids,
+            @RequestHeader(value = ClusterController.FORWARDED_HEADER, required = false) String forwardedBy) {
+        // In partitioned mode only the players this node owns are refreshed here.
+        var cluster = SkinToolApplication.getClusterController();
+        var owned = forwardedBy != null ? ids : ids.stream().filter(cluster::owns).toList();
+        var forwarded = forwardedBy != null ? Map.<String, CompletableFuture<HttpResponse<byte[]>>>of()
+                : cluster.forwardForeign(ids, "/skin/refresh", MediaType.APPLICATION_JSON_VALUE,
+                        REFRESH_TIME_PER_PLAYER);
+
+        var outcomes = new ConcurrentHashMap<String, Integer>();
+        for (var outcome : List.of("unchanged", "regenerated", "missing", "unknown", "failed"))
+            outcomes.put(outcome, 0);
+
+        owned.parallelStream().forEach(id -> outcomes.merge(refreshSkins(id), 1, Integer::sum));
+
+        forwarded.forEach((node, response) -> {
+            try {
+                jsonMapper.readValue(awaitForwarded(node, response), FORWARDED_COUNTS)
+                        .forEach((outcome, count) -> outcomes.merge(outcome, count, Integer::sum));
+            } catch (IOException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Bad response from " + node, e);
+            }
+        });
+
+        return outcomes;
+    }
+
+    private String refreshSkins(UUID id) {
         var storedSkins = skinCollectionMap.get(id);
+        if (storedSkins == null)
+            return "missing";
+        var source = currentSource(id, false);
+        if (source == null)
+            return "unknown";
+
+        // Collections from before sources were recorded adopt the current one,
+        // unchecked ones are regenerated.
+        var storedSource = Skin.sourceOf(storedSkins);
+        var changed = storedSource != null && !storedSource.equals(source);
+        try {
+            return generateSkins(id, Priority.BULK, source) == null ? "failed" : changed ? "regenerated" : "unchanged";
+        } catch (Exception e) {
+            e.printStackTrace();
+            return "failed";
+        }
+    }
+
+    /**
+     * @param interactive Whether someone is waiting on the lookup, so it goes
+     *                    ahead of the bulk ones.
+     * @return The fingerprint of the skin the player currently wears, or null if
+     *         it couldn't be looked up.
+     */
+    private static String currentSource(UUID id, boolean interactive) {
+        return SkinToolApplication.getSessionServerClient().fingerprint(id, interactive);
+    }
+
+    /**
+     * Answers requests rejected by admission control with 429 and a Retry-After
+     * header.
+     */
+    @ExceptionHandler(OverloadedException.class)
+    public ResponseEntity<String> overloaded(OverloadedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds())).body(e.getMessage());
+    }
+
+    /**
+     * Returns the stored skins of a player, generating them if needed, and queues
+     * any unsigned skins for upload with the given priority. Interactive requests
+     * are rejected when skin-tool-python or the upload backlog is at capacity,
+     * bulk requests are admitted up front and wait for a python slot instead.
+     * 
+     * If the current source of the player's skin is given, a stored collection
+     * generated from another skin is regenerated, replacing it with higher
+     * versions.
+     * 
+     * @param id       The UUID of the player.
+     * @param priority The upload priority of the player's skins.
+     * @param source   The fingerprint of the skin the player currently wears, or
+     *                 null to keep any stored collection and look it up in the
+     *                 background for a new one.
+     * @return The player's skin collection, or null if python returned no data.
+     * @throws OverloadedException If an interactive request is over the limits.
+     */
+    private List<Skin> generateSkins(UUID id, Priority priority, String source) {
+        var storedSkins = collectionOf(id);
 
         if (storedSkins != null) {
-            return storedSkins;
+            var current = source == null ? storedSkins : checkSource(id, storedSkins, source);
+            if (current != null) {
+                // Promote the pending uploads if someone is now waiting on them.
+                if (current.stream().anyMatch(skin -> skin.getSignature() == null))
+                    UploaderTask.getUploadQueue().offer(id, priority);
+                return current;
+            }
         }
 
         // Get the skins from python
-        var skinsForPlayer = SkinToolApplication.generateSkins(id.toString());
+        var admission = SkinToolApplication.getAdmissionController();
+        var interactive = priority == Priority.INTERACTIVE;
+        if (interactive)
+            admission.admitUploads(UploaderTask.getBacklogSize(), 1);
+        var skinsForPlayer = admission.callPython(!interactive, () -> SkinToolApplication.generateSkins(id.toString()));
 
         // Parse the skins into SkinCollection Format.
         if (skinsForPlayer.get("data") != null) {
-            var skins = skinsForPlayer.getAsJsonObject("data").entrySet().stream().map(
-                    m -> Skin.create(m.getValue().getAsString(), m.getKey(), skinsForPlayer.get("slim").getAsBoolean()))
-                    .toList();
+            // Canonicalize the pngs, dropping any that aren't valid skins.
+            var slim = skinsForPlayer.get("slim").getAsBoolean();
+            // Versions keep growing past the collection being replaced.
+            var version = storedSkins == null ? 0 : Skin.versionOf(storedSkins) + 1;
+            var canonicalSkins = new ArrayList<Skin>();
+            for (var m : skinsForPlayer.getAsJsonObject("data").entrySet()) {
+                try {
+                    var png = PngCanonicalizer.canonicalizeBase64(m.getValue().getAsString());
+                    canonicalSkins.add(Skin.create(png, m.getKey(), slim,
+                            source != null ? source : Skin.UNCHECKED_SOURCE, version));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Dropping skin " + m.getKey() + " for " + id + ": " + e.getMessage());
+                }
+            }
+            var skins = List.copyOf(canonicalSkins);
 
-            // Add to the map
+            // Add to the map, persist and queue for upload
             skinCollectionMap.put(id, skins);
+            invalidateResponses(id);
+            SkinToolApplication.getPersistenceController().save(id, skins);
+            UploaderTask.getUploadQueue().offer(id, priority);
+            // Record what the skins are generated from, for later refreshes.
+            if (source == null)
+                recordSource(id);
 
             return skins;
         } else {
@@ -93,20 +569,89 @@ public class SkinController {
 
     }
 
+    /**
+     * Looks up the skin a player currently wears in the background, and records
+     * it as the source of the player's unchecked collection. If the lookup
+     * fails the collection stays unchecked, and is regenerated on the next
+     * refresh since the player may have changed skin meanwhile.
+     * 
+     * @param id The UUID of the player.
+     */
+    private static void recordSource(UUID id) {
+        SkinToolApplication.getSessionServerClient().fingerprintAsync(id).thenAccept(source -> {
+            if (source == null)
+                return;
+            while (true) {
+                var current = skinCollectionMap.get(id);
+                if (current == null || !Skin.UNCHECKED_SOURCE.equals(Skin.sourceOf(current)))
+                    return;
+                var recorded = current.stream().map(skin -> skin.withSource(source)).toList();
+                if (skinCollectionMap.replace(id, current, recorded)) {
+                    invalidateResponses(id);
+                    SkinToolApplication.getPersistenceController().save(id, recorded);
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks a stored collection against the skin the player currently wears. A
+     * collection from before sources were recorded adopts the current one, while
+     * an unchecked one counts as generated from another skin.
+     * 
+     * @return The collection to keep, or null if it was generated from another
+     *         skin.
+     */
+    private static List<Skin> checkSource(UUID id, List<Skin> storedSkins, String source) {
+        var storedSource = Skin.sourceOf(storedSkins);
+        if (source.equals(storedSource))
+            return storedSkins;
+        if (storedSource != null)
+            return null;
+
+        var adopted = storedSkins.stream().map(skin -> skin.withSource(source)).toList();
+        if (!skinCollectionMap.replace(id, storedSkins, adopted))
+            return skinCollectionMap.get(id);
+        invalidateResponses(id);
+        SkinToolApplication.getPersistenceController().save(id, adopted);
+        return adopted;
+    }
+
     @PostMapping("/skin/add")
-    public boolean addSkin(@RequestBody List<UUID> requestJson) {
+    public boolean addSkin(@RequestBody List<UUID> requestJson,
+            @RequestHeader(value = ClusterController.FORWARDED_HEADER, required = false) String forwardedBy) {
 
         if (requestJson.isEmpty()) {
             return false;
         }
+        // In partitioned mode only the players this node owns are generated here.
+        var cluster = SkinToolApplication.getClusterController();
+        var owned = forwardedBy != null ? requestJson : requestJson.stream().filter(cluster::owns).toList();
+
+        // Reject batches that could never fit the upload backlog, and the whole
+        // batch if the backlog has no room for it right now.
+        var admission = SkinToolApplication.getAdmissionController();
+        var incoming = (int) owned.stream().filter(id -> !skinCollectionMap.containsKey(id)).count();
+        if (incoming > admission.getMaxPendingUploads())
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                    "At most " + admission.getMaxPendingUploads() + " new players per batch, got " + incoming);
+        admission.admitUploads(UploaderTask.getBacklogSize(), incoming);
+
+        // Hand the other players to their owners
+        var forwarded = forwardedBy != null ? Map.<String, CompletableFuture<HttpResponse<byte[]>>>of()
+                : cluster.forwardForeign(requestJson, "/skin/add", MediaType.APPLICATION_JSON_VALUE,
+                        ADD_TIME_PER_PLAYER);
+
         // Generate skins for all the provided ids
-        requestJson.parallelStream().forEach(id -> {
+        owned.parallelStream().forEach(id -> {
             try {
-                generateSkins(id);
+                generateSkins(id, Priority.BULK, null);
             } catch (Exception e) {
                 e.printStackTrace();
             }
         });
+        forwarded.forEach(SkinController::awaitForwarded);
         // Return to symbolize success.
         return true;
     }
@@ -0,0 +1,109 @@
+package us.jcedeno.skin.controllers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+import us.jcedeno.skin.entities.Skin;
+
+/**
+ * A per-player cache of serialized skin collections, so hot reads are a byte
+ * copy instead of a Jackson run over large base64 payloads. There is one cache
+ * per wire format. Since collections
+ * are immutable and replaced as a whole on every change, an entry is only
+ * served for the exact collection it was serialized from.
+ * 
+ * The cache is bounded by the bytes it holds and drops entries that aren't
+ * read for a while, so only the hot players stay serialized.
+ * 
+ * @author jcedeno
+ */
+public class SkinResponseCache {
+    private static final long MAX_CACHE_BYTES = 256L << 20;
+    private static final Duration CACHE_TTL = Duration.ofMinutes(10);
+
+    private final ConcurrentMap<UUID, CachedResponse> cache = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHE_BYTES)
+            .<UUID, CachedResponse>weigher((id, response) -> response.body().length + response.gzip().length)
+            .expireAfterAccess(CACHE_TTL).build().asMap();
+    private final ObjectMapper mapper;
+    private final Function<List<Skin>, ?> view;
+
+    /**
+     * @param mapper The mapper of the wire format.
+     * @param view   Converts a collection into the object to serialize.
+     */
+    public SkinResponseCache(ObjectMapper mapper, Function<List<Skin>, ?> view) {
+        this.mapper = mapper;
+        this.view = view;
+    }
+
+    /**
+     * A serialized collection with its gzipped form and a strong ETag computed
+     * from the serialized bytes. The gzipped form has its own ETag since it's a
+     * different representation.
+     */
+    public record CachedResponse(List<Skin> source, byte[] body, byte[] gzip, String etag, String gzipEtag) {
+
+        /**
+         * @param ifNoneMatch The If-None-Match header of the request, may be null.
+         * @return true if the client already holds either representation.
+         */
+        public boolean matches(String ifNoneMatch) {
+            return ifNoneMatch != null
+                    && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag) || ifNoneMatch.contains(gzipEtag));
+        }
+    }
+
+    /**
+     * Returns the cached response for a player, serializing the collection if
+     * there is none.
+     * 
+     * @param id    The UUID of the player.
+     * @param skins The player's current collection.
+     */
+    public CachedResponse get(UUID id, List<Skin> skins) {
+        var cached = cache.get(id);
+        if (cached != null && cached.source() == skins)
+            return cached;
+        return cache.compute(id, (k, previous) -> previous != null && previous.source() == skins ? previous
+                : serialize(skins));
+    }
+
+    /**
+     * Drops the cached response of a player, freeing it as soon as the player's
+     * collection changes instead of on the next read.
+     * 
+     * @param id The UUID of the player.
+     */
+    public void invalidate(UUID id) {
+        cache.remove(id);
+    }
+
+    private CachedResponse serialize(List<Skin> skins) {
+        try {
+            var body = mapper.writeValueAsBytes(view.apply(skins));
+
+            var bytes = new ByteArrayOutputStream(body.length / 2);
+            try (var gzip = new GZIPOutputStream(bytes)) {
+                gzip.write(body);
+            }
+
+            var hash = Hashing.sha256().hashBytes(body).toString().substring(0, 32);
+            return new CachedResponse(skins, body, bytes.toByteArray(), "\"" + hash + "\"", "\"" + hash + "-gzip\"");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package us.jcedeno.skin.controllers;
+
+import java.util.Map;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import us.jcedeno.skin.uploader.UploaderTask;
+
+/**
+ * The rest controller exposing the state of this node's uploader.
+ * 
+ * @author jcedeno
+ */
+@RestController
+public class UploaderController {
+
+    /**
+     * @return The current and highest concurrency limit of the uploader, how many
+     *         uploads are running, and how many players are being uploaded or
+     *         waiting for it.
+     */
+    @GetMapping("/uploader/stats")
+    public Map<String, Integer> getStats() {
+        var limiter = UploaderTask.getUploadLimiter();
+        return Map.of("limit", limiter.getLimit(), "maxLimit", limiter.getMaxLimit(), "inFlight",
+                limiter.getInFlight(), "uploading", UploaderTask.getUploadingCount(), "queued",
+                UploaderTask.getUploadQueue().size());
+    }
+
+}
@@ -0,0 +1,40 @@
+package us.jcedeno.skin.entities;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The binary wire representation of a {@link Skin}, served as CBOR. The texture
+ * value and signature are sent as raw bytes instead of base64 text: the png
+ * for skins that aren't signed yet, the Mojang textures property once they are.
+ * 
+ * @author jcedeno
+ */
+public record BinarySkin(String name, byte[] value, byte[] signature, boolean slim, long version) {
+
+    public static BinarySkin of(Skin skin) {
+        return new BinarySkin(skin.getName(), decode(skin.getValue()), decode(skin.getSignature()), skin.isSlim(),
+                skin.getVersion());
+    }
+
+    public static List<BinarySkin> of(List<Skin> skins) {
+        return skins.stream().map(BinarySkin::of).toList();
+    }
+
+    /**
+     * Same as {@link Skin#project(Set)}, with the value and signature as bytes.
+     */
+    public static Map<String, Object> project(Skin skin, Set<String> fields) {
+        var map = skin.project(fields);
+        map.computeIfPresent("value", (k, v) -> decode((String) v));
+        map.computeIfPresent("signature", (k, v) -> decode((String) v));
+        return map;
+    }
+
+    private static byte[] decode(String base64) {
+        return base64 == null ? null : Base64.getDecoder().decode(base64);
+    }
+
+}
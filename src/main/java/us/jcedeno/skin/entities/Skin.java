@@ -1,30 +1,61 @@
 package us.jcedeno.skin.entities;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
 import lombok.Getter;
-import lombok.Setter;
 
 /**
  * An object containing a player's skin variant and the name of the variant.
  * 
+ * Skins are immutable, a change produces a new skin with a higher version that
+ * replaces the old one by swapping the player's whole collection in the map.
+ * That way readers never see a half-updated skin without taking a lock.
+ * 
  * @jcedeno
  */
 public class Skin {
+    /** The names of the fields that can be selected with {@link #project(Set)}. */
+    public static final Set<String> FIELDS = Set.of("name", "signature", "value", "slim");
+    /**
+     * The source of a collection whose mojang skin hasn't been looked up yet, or
+     * couldn't be. The player may have changed skin since, so it must be checked.
+     */
+    public static final String UNCHECKED_SOURCE = "unchecked";
+
     /** The name to refer to this skin-variant as. */
     private final @Getter String name;
     /**
      * The Mojang Skin Signature, If null at any point, assume the skin hasn't been
      * uploaded yet.
      */
-    private volatile @Getter @Setter String signature;
+    private final @Getter String signature;
     /** The base64-encoded skin file. This is the actual png skin image */
-    private volatile @Getter @Setter String value;
+    private final @Getter String value;
     /** Weather the skin is slim or not */
-    private volatile @Getter @Setter boolean slim;
+    private final @Getter boolean slim;
+    /** Incremented on every change to the skin, starting at 0. */
+    private final @Getter long version;
+    /**
+     * The fingerprint of the player's mojang skin this variant was generated from,
+     * null if unknown.
+     */
+    private final @Getter String source;
 
     public Skin(String value, String name, Boolean slim) {
-        this.value = value;
+        this(name, null, value, slim, 0, null);
+    }
+
+    private Skin(String name, String signature, String value, boolean slim, long version, String source) {
         this.name = name;
+        this.signature = signature;
+        this.value = value;
         this.slim = slim;
+        this.version = version;
+        this.source = source;
     }
 
     /** Static constructor */
@@ -32,4 +63,83 @@ public class Skin {
         return new Skin(skinBase64, skinName, slim);
     }
 
+    /**
+     * Static constructor for a skin replacing an older collection of the player.
+     * 
+     * @param source  The fingerprint of the mojang skin it was generated from.
+     * @param version The version to start at, higher than the replaced ones.
+     */
+    public static Skin create(String skinBase64, String skinName, Boolean slim, String source, long version) {
+        return new Skin(skinName, null, skinBase64, slim, version, source);
+    }
+
+    /**
+     * Returns the signed version of this skin.
+     * 
+     * @param signature The Mojang skin signature.
+     * @param value     The texture value Mojang signed.
+     * @return A new skin with the next version.
+     */
+    public Skin withSignature(String signature, String value) {
+        return new Skin(name, signature, value, slim, version + 1, source);
+    }
+
+    /**
+     * Returns this skin recorded as generated from the given mojang skin.
+     * 
+     * @param source The fingerprint of the mojang skin.
+     * @return A new skin with the next version.
+     */
+    public Skin withSource(String source) {
+        return new Skin(name, signature, value, slim, version + 1, source);
+    }
+
+    /**
+     * @param other Another skin.
+     * @return true if both are the same variant with the same texture and
+     *         signature, whatever their versions and sources.
+     */
+    public boolean isSameSkin(Skin other) {
+        return slim == other.slim && Objects.equals(name, other.name) && Objects.equals(value, other.value)
+                && Objects.equals(signature, other.signature);
+    }
+
+    /**
+     * @param skins A player's collection.
+     * @return The version of the collection, which grows whenever one of its
+     *         skins changes.
+     */
+    public static long versionOf(List<Skin> skins) {
+        return skins.stream().mapToLong(Skin::getVersion).sum();
+    }
+
+    /**
+     * @param skins A player's collection.
+     * @return The fingerprint of the mojang skin the collection was generated
+     *         from, or null if unknown.
+     */
+    public static String sourceOf(List<Skin> skins) {
+        var sources = skins.stream().map(Skin::getSource).distinct().toList();
+        return sources.size() == 1 ? sources.get(0) : null;
+    }
+
+    /**
+     * Returns a view of this skin with only the given fields.
+     * 
+     * @param fields The names of the fields to include, see {@link #FIELDS}.
+     * @return A map of field name to value, in declaration order.
+     */
+    public Map<String, Object> project(Set<String> fields) {
+        var map = new LinkedHashMap<String, Object>();
+        if (fields.contains("name"))
+            map.put("name", name);
+        if (fields.contains("signature"))
+            map.put("signature", signature);
+        if (fields.contains("value"))
+            map.put("value", value);
+        if (fields.contains("slim"))
+            map.put("slim", slim);
+        return map;
+    }
+
 }
@@ -0,0 +1,22 @@
+package us.jcedeno.skin.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flush of the uploader's changed collections to the persistence tiers.
+ * 
+ * @author jcedeno
+ */
+@Name("us.jcedeno.skin.PersistenceFlush")
+@Label("Persistence Flush")
+@Category({ "Skin Tool", "Persistence" })
+@StackTrace(false)
+public class PersistenceFlushEvent extends jdk.jfr.Event {
+
+    @Label("Players")
+    public int players;
+
+}
@@ -0,0 +1,30 @@
+package us.jcedeno.skin.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A call to skin-tool-python to generate a player's skin variants.
+ * 
+ * @author jcedeno
+ */
+@Name("us.jcedeno.skin.PythonGenerate")
+@Label("Skin Tool Python Generate")
+@Category({ "Skin Tool", "Upstream" })
+@StackTrace(false)
+public class PythonGenerateEvent extends jdk.jfr.Event {
+
+    @Label("Player")
+    public String uuid;
+
+    @Label("Response Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Outcome")
+    public String outcome;
+
+}
@@ -0,0 +1,33 @@
+package us.jcedeno.skin.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A write to redis, from the moment it's issued until redis replies.
+ * 
+ * @author jcedeno
+ */
+@Name("us.jcedeno.skin.RedisWrite")
+@Label("Redis Write")
+@Category({ "Skin Tool", "Persistence" })
+@StackTrace(false)
+public class RedisWriteEvent extends jdk.jfr.Event {
+
+    @Label("Player")
+    public String uuid;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Payload Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Outcome")
+    public String outcome;
+
+}
@@ -0,0 +1,40 @@
+package us.jcedeno.skin.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An attempt of the uploader to get a single skin variant signed by mineskin,
+ * including any rate limit wait in the mineskin client.
+ * 
+ * @author jcedeno
+ */
+@Name("us.jcedeno.skin.UploadAttempt")
+@Label("Skin Upload Attempt")
+@Category({ "Skin Tool", "Uploader" })
+@StackTrace(false)
+public class UploadAttemptEvent extends jdk.jfr.Event {
+
+    @Label("Player")
+    public String uuid;
+
+    @Label("Skin Name")
+    public String skinName;
+
+    @Label("Variant")
+    public String variant;
+
+    @Label("Mode")
+    public String mode;
+
+    @Label("Skin Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Outcome")
+    public String outcome;
+
+}
@@ -0,0 +1,32 @@
+package us.jcedeno.skin.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * A periodic sample of the uploader's adaptive concurrency limit.
+ * 
+ * @author jcedeno
+ */
+@Name("us.jcedeno.skin.UploadConcurrency")
+@Label("Upload Concurrency")
+@Category({ "Skin Tool", "Uploader" })
+@Period("1 s")
+@StackTrace(false)
+public class UploadConcurrencyEvent extends jdk.jfr.Event {
+
+    @Label("Limit")
+    @Description("How many mineskin uploads may run at once")
+    public int limit;
+
+    @Label("In Flight")
+    public int inFlight;
+
+    @Label("Queued Players")
+    public int queued;
+
+}
@@ -0,0 +1,165 @@
+package us.jcedeno.skin.mojang;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * A client for the mojang session server, used to fingerprint the skin a player
+ * is currently wearing. The fingerprint is the hash mojang addresses the
+ * texture by, plus the model, so it only changes when the player changes skin.
+ * 
+ * Lookups are paced to stay under the session server's rate limit. Lookups
+ * that don't need an answer right away are queued on a small pool of their
+ * own, see {@link #fingerprintAsync}. Only one lookup that isn't interactive
+ * waits for the pacing at a time, so an interactive one gets the next lookup
+ * instead of waiting behind every queued one.
+ * 
+ * @author jcedeno
+ */
+public class SessionServerClient {
+    public static final String DEFAULT_BASE = "https://sessionserver.mojang.com";
+    /** The fingerprint of players wearing the default skin. */
+    public static final String DEFAULT_SKIN = "default";
+    /** How many background lookups may wait at once, more are answered with null. */
+    private static final int MAX_QUEUED_LOOKUPS = 100_000;
+
+    private final String base;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    /** Paces lookups, null to not pace them. */
+    private final RateLimiter rateLimiter;
+    /** Held by the lookup that isn't interactive waiting for the rate limiter. */
+    private final Object backgroundTurn = new Object();
+    private final ThreadPoolExecutor lookups = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_LOOKUPS),
+            new ThreadFactoryBuilder().setNameFormat("session-server-%d").setDaemon(true).build());
+
+    /**
+     * @param base The base url of the session server.
+     */
+    public SessionServerClient(String base) {
+        this(base, 1);
+    }
+
+    /**
+     * @param base             The base url of the session server.
+     * @param lookupsPerSecond How many lookups to make per second at most, 0 for
+     *                         no limit.
+     */
+    public SessionServerClient(String base, double lookupsPerSecond) {
+        this.base = base;
+        this.rateLimiter = lookupsPerSecond > 0 ? RateLimiter.create(lookupsPerSecond) : null;
+    }
+
+    /**
+     * Looks up the skin a player is currently wearing in the background.
+     * 
+     * @param id The UUID of the player.
+     * @return The fingerprint of the player's skin, or null if it couldn't be
+     *         looked up or too many lookups are queued.
+     */
+    public CompletableFuture<String> fingerprintAsync(UUID id) {
+        try {
+            return CompletableFuture.supplyAsync(() -> fingerprint(id), lookups);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Looks up the skin a player is currently wearing, as bulk work that lets
+     * interactive lookups go first.
+     * 
+     * @param id The UUID of the player.
+     * @return The fingerprint of the player's skin, or null if it couldn't be
+     *         looked up.
+     */
+    public String fingerprint(UUID id) {
+        return fingerprint(id, false);
+    }
+
+    /**
+     * Looks up the skin a player is currently wearing.
+     * 
+     * @param id          The UUID of the player.
+     * @param interactive Whether someone is waiting on the lookup, which then
+     *                    goes ahead of the bulk and background ones.
+     * @return The fingerprint of the player's skin, or null if it couldn't be
+     *         looked up.
+     */
+    public String fingerprint(UUID id, boolean interactive) {
+        if (rateLimiter != null) {
+            if (interactive) {
+                rateLimiter.acquire();
+            } else {
+                synchronized (backgroundTurn) {
+                    rateLimiter.acquire();
+                }
+            }
+        }
+        var request = HttpRequest.newBuilder(
+                URI.create(base + "/session/minecraft/profile/" + id.toString().replace("-", "")))
+                .timeout(Duration.ofSeconds(10)).header("accept", "application/json").build();
+        try {
+            var response = client.send(request, BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                System.out.println("Session server answered " + response.statusCode() + " for " + id);
+                return null;
+            }
+            return fingerprint(JsonParser.parseString(response.body()).getAsJsonObject());
+        } catch (IOException | JsonParseException | IllegalStateException | IllegalArgumentException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * @param profile A session server profile.
+     * @return The fingerprint of the profile's skin.
+     */
+    static String fingerprint(JsonObject profile) {
+        var properties = profile.getAsJsonArray("properties");
+        if (properties == null)
+            return DEFAULT_SKIN;
+        for (var property : properties) {
+            var object = property.getAsJsonObject();
+            if (!object.get("name").getAsString().equals("textures"))
+                continue;
+
+            var textures = JsonParser.parseString(new String(
+                    Base64.getDecoder().decode(object.get("value").getAsString()), StandardCharsets.UTF_8))
+                    .getAsJsonObject().getAsJsonObject("textures");
+            var skin = textures == null ? null : textures.getAsJsonObject("SKIN");
+            if (skin == null)
+                return DEFAULT_SKIN;
+
+            // Textures are addressed by the hash at the end of their url.
+            var url = skin.get("url").getAsString();
+            var hash = url.substring(url.lastIndexOf('/') + 1);
+            var metadata = skin.getAsJsonObject("metadata");
+            var slim = metadata != null && metadata.has("model") && metadata.get("model").getAsString().equals("slim");
+            return slim ? hash + ":slim" : hash;
+        }
+        return DEFAULT_SKIN;
+    }
+
+}
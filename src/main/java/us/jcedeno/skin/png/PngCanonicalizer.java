@@ -0,0 +1,165 @@
+package us.jcedeno.skin.png;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+
+/**
+ * Turns skin pngs into a canonical, minimal encoding before they are stored and
+ * uploaded. The pixels are read as 8-bit ARGB, the way Minecraft reads skins,
+ * and re-encoded losslessly as a palette image when there are few enough
+ * colours and as a truecolour image otherwise, keeping whichever is smaller.
+ * Every ancillary chunk except tRNS is dropped. Pixel values, including the
+ * colour of fully transparent pixels, are kept as they are since Minecraft
+ * ignores alpha on parts of the base skin layer.
+ * 
+ * Skins with the same pixels always produce byte-identical pngs, so equal
+ * textures can be deduplicated by their bytes.
+ * 
+ * @author jcedeno
+ */
+public final class PngCanonicalizer {
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+    private PngCanonicalizer() {
+    }
+
+    /**
+     * Canonicalizes a base64-encoded skin png.
+     * 
+     * @param skinBase64 The base64-encoded png.
+     * @return The base64-encoded canonical png.
+     * @throws IllegalArgumentException If the png can't be read or isn't a 64x64
+     *                                  or 64x32 skin.
+     */
+    public static String canonicalizeBase64(String skinBase64) {
+        return Base64.getEncoder().encodeToString(canonicalize(Base64.getDecoder().decode(skinBase64)));
+    }
+
+    /**
+     * Canonicalizes a skin png.
+     * 
+     * @param png The png bytes.
+     * @return The canonical png bytes.
+     * @throws IllegalArgumentException If the png can't be read or isn't a 64x64
+     *                                  or 64x32 skin.
+     */
+    public static byte[] canonicalize(byte[] png) {
+        var image = read(png);
+        try {
+            if (image.getWidth() != 64 || (image.getHeight() != 64 && image.getHeight() != 32))
+                throw new IllegalArgumentException(
+                        "Skins must be 64x64 or 64x32, got " + image.getWidth() + "x" + image.getHeight());
+
+            var width = image.getWidth();
+            var height = image.getHeight();
+            var pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+            var best = encode(truecolor(pixels, width, height));
+            var palette = palette(pixels, width, height);
+            if (palette != null) {
+                var indexed = encode(palette);
+                if (indexed.length < best.length)
+                    best = indexed;
+            }
+            return stripAncillaryChunks(best);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BufferedImage read(byte[] png) {
+        try {
+            var image = ImageIO.read(new ByteArrayInputStream(png));
+            if (image != null)
+                return image;
+        } catch (IOException e) {
+            // Corrupt image data, same as an unreadable format.
+        }
+        throw new IllegalArgumentException("Not a readable png");
+    }
+
+    private static BufferedImage truecolor(int[] pixels, int width, int height) {
+        var opaque = Arrays.stream(pixels).allMatch(pixel -> pixel >>> 24 == 0xff);
+        var image = new BufferedImage(width, height, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    /**
+     * @return The pixels as a palette image with the colours in ascending ARGB
+     *         order, or null if there are more than 256 colours.
+     */
+    private static BufferedImage palette(int[] pixels, int width, int height) {
+        var colours = Arrays.stream(pixels).distinct().sorted().toArray();
+        if (colours.length > 256)
+            return null;
+
+        var indexes = new HashMap<Integer, Integer>();
+        for (var i = 0; i < colours.length; i++)
+            indexes.put(colours[i], i);
+
+        // Byte-binary images pack 1, 2 or 4 bits per pixel depending on the palette size.
+        var bits = colours.length <= 2 ? 1 : colours.length <= 4 ? 2 : colours.length <= 16 ? 4 : 8;
+        var colourModel = new IndexColorModel(bits, colours.length, colours, 0, true, -1, DataBuffer.TYPE_BYTE);
+        var image = new BufferedImage(width, height,
+                bits < 8 ? BufferedImage.TYPE_BYTE_BINARY : BufferedImage.TYPE_BYTE_INDEXED, colourModel);
+        var raster = image.getRaster();
+        for (var y = 0; y < height; y++)
+            for (var x = 0; x < width; x++)
+                raster.setSample(x, y, 0, indexes.get(pixels[y * width + x]));
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        var writer = ImageIO.getImageWritersByFormatName("png").next();
+        var param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.0f);
+
+        var bytes = new ByteArrayOutputStream();
+        try (var output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Drops every ancillary chunk (lowercase first letter) except the tRNS
+     * transparency chunk.
+     */
+    private static byte[] stripAncillaryChunks(byte[] png) {
+        var input = ByteBuffer.wrap(png);
+        var output = ByteBuffer.allocate(png.length);
+        output.put(SIGNATURE);
+        input.position(SIGNATURE.length);
+
+        while (input.remaining() >= 12) {
+            var start = input.position();
+            var length = input.getInt();
+            var type = new String(png, start + 4, 4, StandardCharsets.US_ASCII);
+            var chunkSize = 12 + length;
+            if (Character.isUpperCase(type.charAt(0)) || type.equals("tRNS"))
+                output.put(png, start, chunkSize);
+            input.position(start + chunkSize);
+        }
+        return Arrays.copyOf(output.array(), output.position());
+    }
+
+}
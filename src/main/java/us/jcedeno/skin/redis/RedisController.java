@@ -1,21 +1,354 @@
 package us.jcedeno.skin.redis;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.LettuceFutures;
+import io.lettuce.core.ReadFrom;
 import io.lettuce.core.RedisClient;
-import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.api.StatefulConnection;
+import io.lettuce.core.api.async.RedisHashAsyncCommands;
+import io.lettuce.core.api.async.RedisStringAsyncCommands;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.masterreplica.MasterReplica;
 import lombok.Getter;
+import us.jcedeno.skin.jfr.RedisWriteEvent;
 
 /**
  * A controller for the redis side of the application.
  * 
+ * Connects to a single redis server, a master with replicas or a redis cluster.
+ * Writes and lookups of single players always go to the masters, since a
+ * lagging replica could hand back a stale or missing collection. Only a bulk
+ * {@link #scan} of every collection may read wherever the given
+ * {@link ReadFrom} says, over a connection of its own, falling back to the
+ * masters if the replicas can't be read. Collections are kept in a single
+ * {@code skins} hash by default, or spread over a number of
+ * {@code skins:{bucket}} hashes so they land on many hash slots of a cluster.
+ * The bucket count in use is stored in redis, and the collections are moved
+ * over on startup whenever it doesn't match the configured one. Every node
+ * sharing a redis must use the same bucket count.
+ * 
  * @author jcedeno
  */
 public class RedisController {
-    private final RedisClient redisClient;
-    private final @Getter StatefulRedisConnection<String, String> redisConnection;
+    /** The hash holding every player's serialized skin collection, when not bucketed. */
+    private static final String SKINS_KEY = "skins";
+    /** How many buckets the collections are spread over, 0 or missing for none. */
+    private static final String LAYOUT_KEY = "skins:buckets";
+    /** How many collections to scan per round trip, when loading or changing layouts. */
+    private static final int SCAN_BATCH = 1000;
+
+    /** How a redis deployment is connected to. */
+    public enum Mode {
+        /** A single server. */
+        STANDALONE,
+        /** A master and its replicas, or the sentinels watching them. */
+        REPLICA,
+        /** A redis cluster. */
+        CLUSTER
+    }
+
+    private final AbstractRedisClient redisClient;
+    private final @Getter StatefulConnection<String, String> redisConnection;
+    private final RedisHashAsyncCommands<String, String> hashes;
+    /** Where reads that may lag behind the masters go. */
+    private final StatefulConnection<String, String> replicaConnection;
+    private final RedisHashAsyncCommands<String, String> replicaHashes;
+    private final RedisStringAsyncCommands<String, String> strings;
+    private final int buckets;
 
     public RedisController(String redisUri) {
-        this.redisClient = RedisClient.create(redisUri);
-        this.redisConnection = redisClient.connect();
+        this(redisUri, Mode.STANDALONE, null, 0);
+    }
+
+    /**
+     * @param redisUris The comma separated uris of the deployment, the seed nodes
+     *                  of a cluster or the master and replicas.
+     * @param mode      How to connect to the deployment.
+     * @param readFrom  Which nodes {@link #scan} reads from, or null for the
+     *                  masters. Ignored for a single server.
+     * @param buckets   How many hashes to spread the collections over, or 0 for
+     *                  the single {@code skins} hash.
+     */
+    public RedisController(String redisUris, Mode mode, ReadFrom readFrom, int buckets) {
+        var uris = Arrays.stream(redisUris.split(",")).map(String::trim).filter(uri -> !uri.isEmpty())
+                .map(RedisURI::create).toList();
+        this.buckets = buckets;
+
+        switch (mode) {
+            case CLUSTER -> {
+                var client = RedisClusterClient.create(uris);
+                var connection = client.connect();
+                connection.setReadFrom(ReadFrom.MASTER);
+                this.redisClient = client;
+                this.redisConnection = connection;
+                this.hashes = connection.async();
+                this.strings = connection.async();
+                if (readsReplicas(readFrom)) {
+                    var replica = client.connect();
+                    replica.setReadFrom(readFrom);
+                    this.replicaConnection = replica;
+                    this.replicaHashes = replica.async();
+                } else {
+                    this.replicaConnection = null;
+                    this.replicaHashes = hashes;
+                }
+            }
+            case REPLICA -> {
+                var client = RedisClient.create();
+                var connection = MasterReplica.connect(client, StringCodec.UTF8, uris);
+                connection.setReadFrom(ReadFrom.MASTER);
+                this.redisClient = client;
+                this.redisConnection = connection;
+                this.hashes = connection.async();
+                this.strings = connection.async();
+                if (readsReplicas(readFrom)) {
+                    var replica = MasterReplica.connect(client, StringCodec.UTF8, uris);
+                    replica.setReadFrom(readFrom);
+                    this.replicaConnection = replica;
+                    this.replicaHashes = replica.async();
+                } else {
+                    this.replicaConnection = null;
+                    this.replicaHashes = hashes;
+                }
+            }
+            default -> {
+                var client = RedisClient.create(uris.get(0));
+                var connection = client.connect();
+                this.redisClient = client;
+                this.redisConnection = connection;
+                this.hashes = connection.async();
+                this.strings = connection.async();
+                this.replicaConnection = null;
+                this.replicaHashes = hashes;
+            }
+        }
+
+        migrate();
+    }
+
+    /**
+     * Writes a player's serialized collection, without waiting for the reply.
+     * Writes are sent in the order they're made.
+     * 
+     * @return The reply, to wait on with {@link #awaitAll}.
+     */
+    public CompletionStage<Boolean> save(UUID id, String json) {
+        var reply = hashes.hset(keyOf(id), id.toString(), json);
+        record(id, "hset", json.length(), reply);
+        return reply;
+    }
+
+    /**
+     * Writes many players' serialized collections with one request per bucket,
+     * waiting for the replies so bulk writers can't outrun redis.
+     * 
+     * @param collections The serialized collections keyed by player UUID.
+     */
+    public void saveAll(Map<UUID, String> collections) {
+        var byKey = new LinkedHashMap<String, Map<String, String>>();
+        collections.forEach((id, json) -> byKey.computeIfAbsent(keyOf(id), key -> new HashMap<>())
+                .put(id.toString(), json));
+
+        var replies = new ArrayList<RedisFuture<Long>>();
+        byKey.forEach((key, fields) -> {
+            var reply = hashes.hset(key, fields);
+            record(null, "hset", fields.values().stream().mapToLong(String::length).sum(), reply);
+            replies.add(reply);
+        });
+        replies.forEach(this::await);
+    }
+
+    /**
+     * Waits for the replies of earlier writes, up to the connection's timeout.
+     */
+    public void awaitAll(List<? extends CompletionStage<?>> replies) {
+        if (!replies.isEmpty())
+            LettuceFutures.awaitAll(redisConnection.getTimeout(),
+                    replies.stream().map(CompletionStage::toCompletableFuture).toArray(Future[]::new));
+    }
+
+    /**
+     * Deletes a player's collection, without waiting for the reply.
+     */
+    public void delete(UUID id) {
+        record(id, "hdel", 0, hashes.hdel(keyOf(id), id.toString()));
+    }
+
+    /**
+     * @return The serialized collections of the given players as the masters
+     *         know them, missing ones are returned without a value.
+     */
+    public List<KeyValue<String, String>> get(List<String> ids) {
+        // One request per bucket, all in flight at once.
+        var byKey = new LinkedHashMap<String, List<String>>();
+        for (var id : ids)
+            byKey.computeIfAbsent(keyOf(UUID.fromString(id)), key -> new ArrayList<>()).add(id);
+
+        var replies = byKey.entrySet().stream()
+                .map(entry -> hashes.hmget(entry.getKey(), entry.getValue().toArray(String[]::new))).toList();
+        var values = new ArrayList<KeyValue<String, String>>(ids.size());
+        replies.forEach(reply -> values.addAll(await(reply)));
+        return values;
+    }
+
+    /**
+     * Walks every stored collection with HSCAN, a batch at a time, so neither
+     * redis nor this node has to hold all of them at once. A collection may be
+     * handed over more than once.
+     * 
+     * @param fromMasters Whether to read from the masters, or from the
+     *                    configured {@link ReadFrom}, where collections may lag
+     *                    behind. A hash whose replicas can't be read is walked
+     *                    again on the masters.
+     * @param consumer    Takes each batch of serialized collections, keyed by
+     *                    UUID.
+     */
+    public void scan(boolean fromMasters, Consumer<Map<String, String>> consumer) {
+        for (var key : keysOf(buckets)) {
+            if (!fromMasters && replicaConnection != null) {
+                try {
+                    scan(replicaHashes, key, consumer);
+                    continue;
+                } catch (RedisException e) {
+                    System.out.println("Couldn't scan " + key + " on the replicas, scanning the masters: " + e);
+                }
+            }
+            scan(hashes, key, consumer);
+        }
+    }
+
+    private void scan(RedisHashAsyncCommands<String, String> commands, String key,
+            Consumer<Map<String, String>> consumer) {
+        ScanCursor cursor = ScanCursor.INITIAL;
+        do {
+            var scan = await(commands.hscan(key, cursor, ScanArgs.Builder.limit(SCAN_BATCH)));
+            if (!scan.getMap().isEmpty())
+                consumer.accept(scan.getMap());
+            cursor = scan;
+        } while (!cursor.isFinished());
+    }
+
+    /**
+     * Closes the connection.
+     */
+    public void close() {
+        if (replicaConnection != null)
+            replicaConnection.close();
+        redisConnection.close();
+        redisClient.shutdown();
+    }
+
+    /**
+     * @return true if the given {@link ReadFrom} may read from something other
+     *         than the masters.
+     */
+    private static boolean readsReplicas(ReadFrom readFrom) {
+        return readFrom != null && readFrom != ReadFrom.MASTER && readFrom != ReadFrom.UPSTREAM;
+    }
+
+    /**
+     * @return The hash a player's collection is stored in.
+     */
+    private String keyOf(UUID id) {
+        // The bucket is the hash tag, so each bucket gets its own slot.
+        return buckets == 0 ? SKINS_KEY : SKINS_KEY + ":{" + Math.floorMod(id.hashCode(), buckets) + "}";
+    }
+
+    /**
+     * @return Every hash collections are stored in with the given bucket count.
+     */
+    private static List<String> keysOf(int buckets) {
+        if (buckets == 0)
+            return List.of(SKINS_KEY);
+        return IntStream.range(0, buckets).mapToObj(bucket -> SKINS_KEY + ":{" + bucket + "}").toList();
+    }
+
+    /**
+     * Moves the stored collections over to the configured bucket count, if they
+     * were stored with another one. Collections are copied before they're
+     * removed from their old hash, and never over a copy that is already there,
+     * so an interrupted move is picked up on the next start without losing
+     * anything.
+     */
+    private void migrate() {
+        var stored = await(strings.get(LAYOUT_KEY));
+        var previous = stored == null ? 0 : Integer.parseInt(stored);
+        if (previous == buckets)
+            return;
+
+        System.out.println("Moving skin collections from " + previous + " to " + buckets + " redis buckets...");
+        var moved = 0;
+        for (var source : keysOf(previous)) {
+            ScanCursor cursor = ScanCursor.INITIAL;
+            do {
+                var scan = await(hashes.hscan(source, cursor, ScanArgs.Builder.limit(SCAN_BATCH)));
+                var copies = new ArrayList<RedisFuture<Boolean>>();
+                var movedFields = new ArrayList<String>();
+                scan.getMap().forEach((id, json) -> {
+                    var target = keyOf(UUID.fromString(id));
+                    if (target.equals(source))
+                        return;
+                    copies.add(hashes.hsetnx(target, id, json));
+                    movedFields.add(id);
+                });
+                copies.forEach(this::await);
+                if (!movedFields.isEmpty())
+                    await(hashes.hdel(source, movedFields.toArray(String[]::new)));
+                moved += movedFields.size();
+                cursor = scan;
+            } while (!cursor.isFinished());
+        }
+
+        await(strings.set(LAYOUT_KEY, String.valueOf(buckets)));
+        System.out.println("Moved " + moved + " skin collections.");
+    }
+
+    /**
+     * Waits for a reply, up to the connection's timeout.
+     */
+    private <T> T await(RedisFuture<T> reply) {
+        return LettuceFutures.awaitOrCancel(reply, redisConnection.getTimeout().toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records an asynchronous write as a {@link RedisWriteEvent} once redis
+     * replies to it. Batched writes are recorded without a player.
+     */
+    private static void record(UUID id, String operation, long bytes, CompletionStage<?> reply) {
+        var event = new RedisWriteEvent();
+        if (!event.isEnabled())
+            return;
+        event.begin();
+        reply.whenComplete((result, error) -> {
+            event.end();
+            if (event.shouldCommit()) {
+                event.uuid = id == null ? null : id.toString();
+                event.operation = operation;
+                event.bytes = bytes;
+                event.outcome = error == null ? "success" : error.toString();
+                event.commit();
+            }
+        });
     }
 
 }
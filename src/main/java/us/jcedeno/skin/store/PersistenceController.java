@@ -0,0 +1,325 @@
+package us.jcedeno.skin.store;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+
+import us.jcedeno.skin.entities.Skin;
+import us.jcedeno.skin.redis.RedisController;
+
+/**
+ * A controller for the persistence side of the application. Collections are
+ * written to the local {@link SkinStore} and to redis, whichever of them are
+ * configured. When both are, redis is the shared source of truth: a player
+ * redis doesn't have was deleted by another node and its local copy is
+ * dropped, and otherwise whichever copy has the highest version is kept and
+ * written over the other one. A collection is only written when its version
+ * is higher than the version last persisted for the player, and the write is
+ * issued while that version is claimed, so an older collection saved at the
+ * same time can't overwrite a newer one.
+ * 
+ * In partitioned mode only the players a node owns are loaded, and redis is
+ * how players are handed off between nodes.
+ * 
+ * @author jcedeno
+ */
+public class PersistenceController {
+    /** How many collections to fetch from redis per round trip when loading. */
+    private static final int LOAD_BATCH = 1000;
+    private static final Gson gson = new Gson();
+
+    private final SkinStore localStore;
+    private final RedisController redis;
+    private final ConcurrentHashMap<UUID, Long> persistedVersions = new ConcurrentHashMap<>();
+
+    /**
+     * @param localStore The local store, or null to only use redis.
+     * @param redis      The redis controller, or null to only use the local store.
+     */
+    public PersistenceController(SkinStore localStore, RedisController redis) {
+        this.localStore = localStore;
+        this.redis = redis;
+    }
+
+    /**
+     * Loads every persisted collection into the given map.
+     */
+    public void load(Map<UUID, List<Skin>> into) {
+        load(into, id -> true);
+    }
+
+    /**
+     * Loads the persisted collections of the given players into the given map,
+     * skipping the players the map already has. Redis is read from its replicas
+     * if configured to.
+     * 
+     * @param into  The map to load the collections into.
+     * @param owned Which players to load.
+     * @return How many collections were loaded.
+     */
+    public int load(Map<UUID, List<Skin>> into, Predicate<UUID> owned) {
+        return load(into, owned, false);
+    }
+
+    /**
+     * Same as {@link #load(Map, Predicate)}.
+     * 
+     * @param fromMasters Whether to only read redis from its masters, for
+     *                    players just handed off by other nodes that the
+     *                    replicas may not have caught up with yet.
+     */
+    public int load(Map<UUID, List<Skin>> into, Predicate<UUID> owned, boolean fromMasters) {
+        var local = new HashMap<UUID, List<Skin>>();
+        if (localStore != null) {
+            var unowned = new ArrayList<UUID>();
+            localStore.forEach((id, payload) -> {
+                if (!owned.test(id))
+                    unowned.add(id);
+                else if (!into.containsKey(id))
+                    local.put(id, parse(new String(payload, StandardCharsets.UTF_8)));
+            });
+            // Copies of players owned by another node, left over from before it joined.
+            unowned.forEach(this::evict);
+        }
+
+        if (redis == null) {
+            local.forEach((id, skins) -> loaded(into, id, skins));
+            System.out.println("Loaded " + local.size() + " skin collections from the local store.");
+            return local.size();
+        }
+
+        // Walk redis, or its replicas, taking every collection that isn't older
+        // than the local copy.
+        var fromRedis = new int[1];
+        redis.scan(fromMasters, batch -> batch.forEach((field, json) -> {
+            var id = UUID.fromString(field);
+            // Handed over again by the scan, or already in the map.
+            if (!owned.test(id) || into.containsKey(id))
+                return;
+            var skins = parse(json);
+            var copy = local.get(id);
+            if (copy != null && Skin.versionOf(copy) > Skin.versionOf(skins))
+                return;
+            local.remove(id);
+            loaded(into, id, skins);
+            if (copy == null || Skin.versionOf(copy) != Skin.versionOf(skins))
+                saveLocally(id, skins);
+            fromRedis[0]++;
+        }));
+
+        // The local copies left are newer than what the scan saw, or it didn't see
+        // them at all. The replicas may lag behind, so the masters decide.
+        var fromStore = 0;
+        var dropped = 0;
+        var stale = new LinkedHashMap<UUID, String>();
+        var remaining = local.keySet().stream().map(UUID::toString).toList();
+        for (var batch : Lists.partition(remaining, LOAD_BATCH)) {
+            for (var entry : redis.get(batch)) {
+                var id = UUID.fromString(entry.getKey());
+                var copy = local.get(id);
+                if (!entry.hasValue()) {
+                    // Deleted by another node while this one was down.
+                    deleteLocally(id);
+                    dropped++;
+                    continue;
+                }
+                var skins = parse(entry.getValue());
+                if (Skin.versionOf(copy) > Skin.versionOf(skins)) {
+                    // The last write of this node never made it to redis.
+                    loaded(into, id, copy);
+                    stale.put(id, gson.toJson(copy));
+                    fromStore++;
+                } else {
+                    loaded(into, id, skins);
+                    if (Skin.versionOf(copy) != Skin.versionOf(skins))
+                        saveLocally(id, skins);
+                    fromRedis[0]++;
+                }
+            }
+        }
+        if (!stale.isEmpty())
+            redis.saveAll(stale);
+
+        System.out.println("Loaded " + fromRedis[0] + " skin collections from redis and " + fromStore
+                + " newer ones from the local store, dropped " + dropped + " deleted ones.");
+        return fromRedis[0] + fromStore;
+    }
+
+    /**
+     * Loads the persisted collection of a single player into the given map,
+     * unless the map already has one. When redis is configured it decides
+     * whether the player exists, since it's where players handed off by other
+     * nodes are, and the local copy is only used if it's newer.
+     * 
+     * @param into The map to load the collection into.
+     * @param id   The UUID of the player.
+     * @return The player's collection in the map, or null if none is persisted.
+     */
+    public List<Skin> loadPlayer(Map<UUID, List<Skin>> into, UUID id) {
+        var payload = localStore == null ? null : localStore.get(id);
+        var copy = payload == null ? null : parse(new String(payload, StandardCharsets.UTF_8));
+        var skins = copy;
+        if (redis != null) {
+            var entry = redis.get(List.of(id.toString())).get(0);
+            if (!entry.hasValue()) {
+                // Deleted by another node, the local copy is stale.
+                if (copy != null)
+                    deleteLocally(id);
+                return null;
+            }
+            var shared = parse(entry.getValue());
+            if (copy == null || Skin.versionOf(shared) >= Skin.versionOf(copy))
+                skins = shared;
+        }
+        if (skins == null)
+            return null;
+
+        var existing = into.putIfAbsent(id, skins);
+        if (existing != null)
+            return existing;
+        persistedVersions.put(id, Skin.versionOf(skins));
+        if (redis != null && skins == copy)
+            // The last write of this node never made it to redis.
+            redis.save(id, gson.toJson(copy));
+        else if (skins != copy && (copy == null || Skin.versionOf(copy) != Skin.versionOf(skins)))
+            saveLocally(id, skins);
+        return skins;
+    }
+
+    /**
+     * Persists a player's collection, unless this or a newer version of it
+     * already was.
+     */
+    public void save(UUID id, List<Skin> skins) {
+        write(id, skins, false);
+    }
+
+    /**
+     * Persists many players' collections at once, skipping those whose version
+     * or a newer one already was, and waits for redis to acknowledge them.
+     */
+    public void saveAll(Map<UUID, List<Skin>> collections) {
+        saveAll(collections, false);
+    }
+
+    /**
+     * Persists many players' collections at once, even those whose version
+     * already was, and waits for redis to acknowledge them. Used to make sure
+     * another node finds the latest version before handing players off to it.
+     */
+    public void flushAll(Map<UUID, List<Skin>> collections) {
+        saveAll(collections, true);
+    }
+
+    private void saveAll(Map<UUID, List<Skin>> collections, boolean force) {
+        var replies = new ArrayList<CompletionStage<?>>();
+        collections.forEach((id, skins) -> {
+            var reply = write(id, skins, force);
+            if (reply != null)
+                replies.add(reply);
+        });
+        if (redis != null)
+            redis.awaitAll(replies);
+    }
+
+    /**
+     * Writes a player's collection to the local store and redis while holding
+     * the player's persisted version, so writes of the same player are issued
+     * in version order and redis applies them in that order.
+     * 
+     * @param force Whether to write the version that was already persisted
+     *              again. Older versions are never written.
+     * @return The reply of the redis write, or null if nothing was written to
+     *         redis.
+     */
+    private CompletionStage<?> write(UUID id, List<Skin> skins, boolean force) {
+        var version = Skin.versionOf(skins);
+        var reply = new CompletionStage<?>[1];
+        persistedVersions.compute(id, (key, persisted) -> {
+            if (persisted != null && (force ? version < persisted : version <= persisted))
+                return persisted;
+            var json = gson.toJson(skins);
+            saveLocally(id, json);
+            if (redis != null)
+                reply[0] = redis.save(id, json);
+            return version;
+        });
+        return reply[0];
+    }
+
+    /**
+     * Deletes a player's persisted collection.
+     */
+    public void delete(UUID id) {
+        persistedVersions.remove(id);
+        deleteLocally(id);
+        if (redis != null)
+            redis.delete(id);
+    }
+
+    /**
+     * Forgets a player handed off to another node. The local copy is only dropped
+     * if redis has the player, otherwise it's the last one.
+     */
+    public void evict(UUID id) {
+        persistedVersions.remove(id);
+        if (redis != null)
+            deleteLocally(id);
+    }
+
+    /**
+     * Closes the local store and the redis connection, flushing the local store
+     * to disk.
+     */
+    public void close() {
+        if (localStore != null)
+            localStore.close();
+        if (redis != null)
+            redis.close();
+    }
+
+    private void loaded(Map<UUID, List<Skin>> into, UUID id, List<Skin> skins) {
+        into.put(id, skins);
+        persistedVersions.put(id, Skin.versionOf(skins));
+    }
+
+    private void saveLocally(UUID id, List<Skin> skins) {
+        saveLocally(id, gson.toJson(skins));
+    }
+
+    private void saveLocally(UUID id, String json) {
+        if (localStore == null)
+            return;
+        try {
+            localStore.put(id, json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void deleteLocally(UUID id) {
+        if (localStore == null)
+            return;
+        try {
+            localStore.delete(id);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static List<Skin> parse(String json) {
+        return List.of(gson.fromJson(json, Skin[].class));
+    }
+
+}
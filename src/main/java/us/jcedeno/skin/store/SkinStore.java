@@ -0,0 +1,322 @@
+package us.jcedeno.skin.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * An embedded, append-only store of byte records keyed by player UUID.
+ * 
+ * Records are appended to memory-mapped segment files in a directory. Each
+ * record carries a sequence number, so the in-memory index can be rebuilt at
+ * startup by replaying every segment and keeping the newest record of each key,
+ * regardless of the order the segments were written in. A background task
+ * flushes the active segment to disk and compacts the sealed segments once
+ * more than half of their bytes are superseded.
+ * 
+ * Record layout: total size (int), crc32 of the rest of the record (int),
+ * sequence number (long), type (byte), uuid (two longs), payload.
+ * 
+ * @author jcedeno
+ */
+public class SkinStore implements Closeable {
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 1 + 16;
+    private static final byte PUT = 1, DELETE = 2;
+    private static final String SEGMENT_PREFIX = "segment-", SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<UUID, Location> index = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSegmentId = new AtomicInteger();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicLong liveBytes = new AtomicLong();
+    private final Object compactionLock = new Object();
+    private final ScheduledExecutorService maintenance;
+    private volatile Segment active;
+
+    /** Where the newest record of a key lives. */
+    private record Location(Segment segment, int offset, int size, long sequence) {
+    }
+
+    /** A memory-mapped segment file, records are only ever appended to it. */
+    private static class Segment {
+        private final int id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private volatile int position;
+
+        Segment(int id, Path path, int size) throws IOException {
+            this.id = id;
+            this.path = path;
+            try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+            }
+        }
+
+        /**
+         * Appends a serialized record.
+         * 
+         * @return The offset of the record, or -1 if the segment is full.
+         */
+        synchronized int append(ByteBuffer record) {
+            var size = record.remaining();
+            if (position + size > buffer.capacity())
+                return -1;
+            var offset = position;
+            buffer.put(offset, record, record.position(), size);
+            position = offset + size;
+            return offset;
+        }
+
+        ByteBuffer read(int offset, int size) {
+            return buffer.slice(offset, size);
+        }
+    }
+
+    /**
+     * Opens the store, replaying any existing segments to rebuild the index.
+     * 
+     * @param directory   The directory holding the segment files.
+     * @param segmentSize The size of newly created segments, in bytes.
+     */
+    public SkinStore(Path directory, int segmentSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+
+        replay();
+        active = segments.isEmpty() ? newSegment(segmentSize) : segments.lastEntry().getValue();
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "skin-store-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(this::maintain, 10, 10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stores the payload of a key, replacing any previous one.
+     */
+    public void put(UUID id, byte[] payload) throws IOException {
+        append(PUT, id, payload);
+    }
+
+    /**
+     * Removes a key from the store.
+     */
+    public void delete(UUID id) throws IOException {
+        if (index.containsKey(id))
+            append(DELETE, id, new byte[0]);
+    }
+
+    /**
+     * @return The payload of a key, or null if it isn't stored.
+     */
+    public byte[] get(UUID id) {
+        var location = index.get(id);
+        if (location == null)
+            return null;
+        var payload = new byte[location.size() - HEADER_SIZE];
+        location.segment().read(location.offset() + HEADER_SIZE, payload.length).get(payload);
+        return payload;
+    }
+
+    /**
+     * Calls the consumer with every stored key and its payload.
+     */
+    public void forEach(BiConsumer<UUID, byte[]> consumer) {
+        index.keySet().forEach(id -> {
+            var payload = get(id);
+            if (payload != null)
+                consumer.accept(id, payload);
+        });
+    }
+
+    /**
+     * @return The number of stored keys.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Rewrites the live records of every sealed segment into new segments and
+     * deletes the old ones. Writes carry on in a fresh active segment meanwhile.
+     * Every new segment is flushed to disk before any old one is deleted.
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            ArrayList<Segment> sealed;
+            synchronized (this) {
+                active = newSegment(segmentSize);
+                sealed = new ArrayList<>(segments.headMap(active.id).values());
+            }
+            var compacting = new HashSet<>(sealed);
+
+            Segment output = null;
+            for (var entry : index.entrySet()) {
+                var location = entry.getValue();
+                if (!compacting.contains(location.segment()))
+                    continue;
+
+                var record = location.segment().read(location.offset(), location.size());
+                var offset = output == null ? -1 : output.append(record);
+                if (offset < 0) {
+                    if (output != null)
+                        output.buffer.force();
+                    output = newSegment(Math.max(segmentSize, location.size()));
+                    offset = output.append(record);
+                }
+                // Only move the key if it wasn't written to or deleted meanwhile.
+                index.replace(entry.getKey(), location,
+                        new Location(output, offset, location.size(), location.sequence()));
+            }
+            if (output != null)
+                output.buffer.force();
+
+            for (var segment : sealed) {
+                segments.remove(segment.id);
+                Files.deleteIfExists(segment.path);
+            }
+            System.out.println("Compacted " + sealed.size() + " skin store segments, " + index.size() + " keys live.");
+        }
+    }
+
+    /**
+     * Stops the background maintenance, waiting for a running compaction to
+     * finish, and flushes the active segment to disk.
+     */
+    @Override
+    public void close() {
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            active.buffer.force();
+        }
+    }
+
+    private synchronized void append(byte type, UUID id, byte[] payload) throws IOException {
+        var sequence = nextSequence.getAndIncrement();
+        var size = HEADER_SIZE + payload.length;
+        var record = ByteBuffer.allocate(size);
+        record.putInt(size).putInt(0).putLong(sequence).put(type).putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits()).put(payload);
+        record.putInt(4, checksum(record.flip()));
+
+        var offset = active.append(record);
+        if (offset < 0) {
+            active.buffer.force();
+            active = newSegment(Math.max(segmentSize, size));
+            offset = active.append(record);
+        }
+
+        var location = type == PUT ? new Location(active, offset, size, sequence) : null;
+        var previous = location != null ? index.put(id, location) : index.remove(id);
+        if (previous != null)
+            liveBytes.addAndGet(-previous.size());
+        if (location != null)
+            liveBytes.addAndGet(size);
+    }
+
+    /** Flushes the active segment and compacts once most sealed bytes are garbage. */
+    private void maintain() {
+        try {
+            active.buffer.force();
+            var written = segments.values().stream().mapToLong(segment -> segment.position).sum();
+            if (segments.size() > 1 && liveBytes.get() < written / 2)
+                compact();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void replay() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (var path : files.toList()) {
+                var name = path.getFileName().toString();
+                if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX))
+                    continue;
+                var id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(id, new Segment(id, path, 0));
+                nextSegmentId.set(Math.max(nextSegmentId.get(), id + 1));
+            }
+        }
+
+        // Newest record of each key, deletions are kept until every segment is seen.
+        var newest = new HashMap<UUID, Location>();
+        var deleted = new HashSet<UUID>();
+        for (var segment : segments.values()) {
+            var buffer = segment.buffer;
+            var offset = 0;
+            while (offset + HEADER_SIZE <= buffer.capacity()) {
+                var size = buffer.getInt(offset);
+                // A zero size is unwritten space, a bad checksum is a torn write.
+                if (size < HEADER_SIZE || offset + size > buffer.capacity()
+                        || buffer.getInt(offset + 4) != checksum(segment.read(offset, size)))
+                    break;
+
+                var sequence = buffer.getLong(offset + 8);
+                var type = buffer.get(offset + 16);
+                var id = new UUID(buffer.getLong(offset + 17), buffer.getLong(offset + 25));
+                var current = newest.get(id);
+                if (current == null || current.sequence() < sequence) {
+                    newest.put(id, new Location(segment, offset, size, sequence));
+                    if (type == DELETE)
+                        deleted.add(id);
+                    else
+                        deleted.remove(id);
+                }
+                nextSequence.set(Math.max(nextSequence.get(), sequence + 1));
+                offset += size;
+            }
+            segment.position = offset;
+        }
+
+        newest.forEach((id, location) -> {
+            if (!deleted.contains(id)) {
+                index.put(id, location);
+                liveBytes.addAndGet(location.size());
+            }
+        });
+    }
+
+    private Segment newSegment(int size) throws IOException {
+        var id = nextSegmentId.getAndIncrement();
+        var segment = new Segment(id, directory.resolve(SEGMENT_PREFIX + String.format("%08d", id) + SEGMENT_SUFFIX),
+                size);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /** Checksums a record, skipping its size and checksum fields. */
+    private static int checksum(ByteBuffer record) {
+        var crc = new CRC32();
+        crc.update(record.slice(8, record.limit() - 8));
+        return (int) crc.getValue();
+    }
+
+}
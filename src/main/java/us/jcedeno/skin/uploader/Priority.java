@@ -0,0 +1,13 @@
+package us.jcedeno.skin.uploader;
+
+/**
+ * The scheduling class of a pending upload. Interactive uploads belong to
+ * players that are actively waiting for their skins, bulk uploads come from
+ * backfills and background sweeps.
+ * 
+ * @author jcedeno
+ */
+public enum Priority {
+    INTERACTIVE,
+    BULK;
+}
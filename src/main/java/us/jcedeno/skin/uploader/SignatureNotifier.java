@@ -0,0 +1,62 @@
+package us.jcedeno.skin.uploader;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import us.jcedeno.skin.entities.Skin;
+
+/**
+ * Lets request threads wait for a player's skins to be signed without polling.
+ * The {@link UploaderTask} completes the player's future once the last of their
+ * skins has a signature.
+ * 
+ * @author jcedeno
+ */
+public class SignatureNotifier {
+    private final ConcurrentHashMap<UUID, CompletableFuture<List<Skin>>> waiting = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a future that completes with the player's collection once all of
+     * its skins are signed. Callers must check the current collection after
+     * registering, since it may have been signed before they did.
+     * 
+     * @param id The UUID of the player.
+     * @return The future shared by everyone waiting on the player.
+     */
+    public CompletableFuture<List<Skin>> awaitSigned(UUID id) {
+        return waiting.computeIfAbsent(id, k -> new CompletableFuture<>());
+    }
+
+    /**
+     * Wakes everyone waiting on the player.
+     * 
+     * @param id     The UUID of the player.
+     * @param skins  The player's fully signed collection.
+     */
+    public void signed(UUID id, List<Skin> skins) {
+        var future = waiting.remove(id);
+        if (future != null)
+            future.complete(skins);
+    }
+
+    /**
+     * Drops the waiters of a player whose collection no longer exists, they will
+     * see their requests time out.
+     * 
+     * @param id The UUID of the player.
+     */
+    public void forget(UUID id) {
+        waiting.remove(id);
+    }
+
+    /**
+     * @param skins A player's collection.
+     * @return true if every skin in the collection has a signature.
+     */
+    public static boolean isSigned(List<Skin> skins) {
+        return skins.stream().allMatch(skin -> skin.getSignature() != null);
+    }
+
+}
@@ -0,0 +1,65 @@
+package us.jcedeno.skin.uploader;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * The textures this service currently serves at its content-addressed
+ * {@code /skin/png/{hash}} url, so mineskin can fetch them instead of having
+ * them uploaded.
+ * 
+ * A texture is registered right before it's handed to mineskin and released as
+ * soon as mineskin answers. Identical textures share a single entry, which is
+ * only dropped once every upload using it has released it.
+ * 
+ * @author jcedeno
+ */
+public class TextureRegistry {
+    private final ConcurrentHashMap<String, Texture> textures = new ConcurrentHashMap<>();
+
+    private record Texture(byte[] png, int references) {
+    }
+
+    /**
+     * Serves a texture until it's released.
+     * 
+     * @param png The png bytes of the texture.
+     * @return The hash the texture is served under.
+     */
+    public String register(byte[] png) {
+        var hash = hash(png);
+        textures.compute(hash, (key, texture) -> texture == null ? new Texture(png, 1)
+                : new Texture(texture.png(), texture.references() + 1));
+        return hash;
+    }
+
+    /**
+     * Stops serving a texture, unless another upload still uses it.
+     * 
+     * @param hash The hash returned by {@link #register(byte[])}.
+     */
+    public void release(String hash) {
+        textures.computeIfPresent(hash, (key, texture) -> texture.references() <= 1 ? null
+                : new Texture(texture.png(), texture.references() - 1));
+    }
+
+    /**
+     * @param hash The hash of a texture.
+     * @return The png bytes of the texture, or null if it's not being served.
+     */
+    public byte[] get(String hash) {
+        var texture = textures.get(hash);
+        return texture == null ? null : texture.png();
+    }
+
+    public int size() {
+        return textures.size();
+    }
+
+    /** The content address of a texture, the hex sha-256 of its bytes. */
+    public static String hash(byte[] png) {
+        return Hashing.sha256().hashBytes(png).toString();
+    }
+
+}
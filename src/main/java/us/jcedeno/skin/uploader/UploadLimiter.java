@@ -0,0 +1,107 @@
+package us.jcedeno.skin.uploader;
+
+/**
+ * An additive-increase, multiplicative-decrease limit on concurrent mineskin
+ * uploads. Every upload that succeeds with a short {@code nextRequest} grows
+ * the limit by {@code 1 / limit}, about one more upload per round of uploads,
+ * while a rate limit error or a timeout halves it. Only one back off happens
+ * per round, uploads started before the last back off can't trigger another.
+ * 
+ * @author jcedeno
+ */
+public class UploadLimiter {
+    private static final double BACKOFF = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double shortNextRequest;
+    private double limit;
+    private int inFlight = 0;
+    /** Incremented on every back off, to tell which uploads started after it. */
+    private long epoch = 0;
+
+    /** How an upload ended. */
+    public enum Outcome {
+        SUCCESS,
+        /** Failed for a reason that says nothing about the load on mineskin. */
+        FAILED,
+        RATE_LIMITED,
+        TIMEOUT
+    }
+
+    /** A slot for one upload, handed back with its outcome. */
+    public record Permit(long epoch) {
+    }
+
+    /**
+     * @param minLimit         The lowest the limit can go, and where it starts.
+     * @param maxLimit         The highest the limit can go.
+     * @param shortNextRequest The longest {@code nextRequest}, in seconds, that
+     *                         still lets the limit grow.
+     */
+    public UploadLimiter(int minLimit, int maxLimit, double shortNextRequest) {
+        this.minLimit = minLimit;
+        this.maxLimit = Math.max(minLimit, maxLimit);
+        this.shortNextRequest = shortNextRequest;
+        this.limit = minLimit;
+    }
+
+    /**
+     * Waits until there is room for another upload under the limit.
+     * 
+     * @return The permit to release once the upload is done.
+     */
+    public synchronized Permit acquire() throws InterruptedException {
+        while (inFlight >= getLimit())
+            wait();
+        inFlight++;
+        return new Permit(epoch);
+    }
+
+    /**
+     * Hands back the permit of a finished upload and adjusts the limit to its
+     * outcome.
+     * 
+     * @param permit      The permit of the upload.
+     * @param outcome     How the upload ended.
+     * @param nextRequest The {@code nextRequest} mineskin answered with, in
+     *                    seconds.
+     */
+    public synchronized void release(Permit permit, Outcome outcome, double nextRequest) {
+        inFlight--;
+        switch (outcome) {
+            case SUCCESS -> {
+                if (nextRequest <= shortNextRequest)
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            case RATE_LIMITED, TIMEOUT -> {
+                if (permit.epoch() == epoch) {
+                    limit = Math.max(minLimit, limit * BACKOFF);
+                    epoch++;
+                }
+            }
+            default -> {
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return How many uploads may currently run at once.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return How many uploads are running.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+}
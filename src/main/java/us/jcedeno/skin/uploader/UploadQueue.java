@@ -0,0 +1,132 @@
+package us.jcedeno.skin.uploader;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A two-lane queue of players waiting for their skins to be uploaded.
+ * 
+ * Every job gets a deadline when it is queued: interactive jobs are due right
+ * away while bulk jobs are due after the configured aging delay. The queue
+ * always hands out the lane head with the earliest deadline, so interactive
+ * jobs overtake fresh bulk jobs but a bulk job that has waited long enough is
+ * served before any interactive job queued after it, which keeps bulk
+ * backfills from starving.
+ * 
+ * A player is queued at most once. Offering an interactive job for a player
+ * that is already queued as bulk promotes it; the stale bulk entry is skipped
+ * when it reaches the head of its lane.
+ * 
+ * @author jcedeno
+ */
+public class UploadQueue {
+    private final Map<Priority, ConcurrentLinkedQueue<Job>> lanes = new EnumMap<>(Priority.class);
+    private final ConcurrentHashMap<UUID, Priority> queued = new ConcurrentHashMap<>();
+    private final long bulkAgingMillis;
+
+    /** A player's pending upload, as handed out by {@link #poll}. */
+    public record Job(UUID id, Priority priority, long deadline) {
+    }
+
+    public UploadQueue(Duration bulkAging) {
+        this.bulkAgingMillis = bulkAging.toMillis();
+        for (var priority : Priority.values())
+            lanes.put(priority, new ConcurrentLinkedQueue<>());
+    }
+
+    /**
+     * Queues a player for upload.
+     * 
+     * @param id       The UUID of the player.
+     * @param priority The scheduling class of the upload.
+     * @return true if the player was queued or promoted, false if it was already
+     *         queued with the same or a higher priority.
+     */
+    public boolean offer(UUID id, Priority priority) {
+        var previous = queued.get(id);
+        while (previous == null || priority.compareTo(previous) < 0) {
+            var swapped = previous == null ? queued.putIfAbsent(id, priority) == null
+                    : queued.replace(id, previous, priority);
+            if (swapped) {
+                var deadline = System.currentTimeMillis() + (priority == Priority.BULK ? bulkAgingMillis : 0);
+                lanes.get(priority).add(new Job(id, priority, deadline));
+                synchronized (this) {
+                    notifyAll();
+                }
+                return true;
+            }
+            previous = queued.get(id);
+        }
+        return false;
+    }
+
+    /**
+     * Takes the most urgent job, waiting up to the given time for one to arrive.
+     * 
+     * @return The job, or null if the queue stayed empty.
+     */
+    public Job poll(long timeout, TimeUnit unit) throws InterruptedException {
+        var waitUntil = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (true) {
+            var job = pollNow();
+            if (job != null)
+                return job;
+
+            synchronized (this) {
+                var remaining = waitUntil - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return null;
+                if (queued.isEmpty())
+                    wait(remaining);
+            }
+        }
+    }
+
+    /**
+     * @return The number of players currently waiting for an upload.
+     */
+    public int size() {
+        return queued.size();
+    }
+
+    /**
+     * @return The priority a player is queued with, or null if it isn't queued.
+     */
+    public Priority priorityOf(UUID id) {
+        return queued.get(id);
+    }
+
+    private Job pollNow() {
+        while (true) {
+            ConcurrentLinkedQueue<Job> best = null;
+            Job bestHead = null;
+            for (var lane : lanes.values()) {
+                var head = peekValid(lane);
+                if (head != null && (bestHead == null || head.deadline() < bestHead.deadline())) {
+                    best = lane;
+                    bestHead = head;
+                }
+            }
+            if (bestHead == null)
+                return null;
+
+            // Claim the job, another consumer may have raced us to it.
+            if (best.remove(bestHead) && queued.remove(bestHead.id(), bestHead.priority()))
+                return bestHead;
+        }
+    }
+
+    /** Drops stale (promoted or already claimed) entries from the lane head. */
+    private Job peekValid(ConcurrentLinkedQueue<Job> lane) {
+        Job head;
+        while ((head = lane.peek()) != null && queued.get(head.id()) != head.priority())
+            lane.remove(head);
+        return head;
+    }
+
+}
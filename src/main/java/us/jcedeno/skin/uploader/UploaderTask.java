@@ -2,125 +2,419 @@ package us.jcedeno.skin.uploader;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Base64;
-import java.util.HashMap;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
 
-import com.google.gson.Gson;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.mineskin.SkinOptions;
 import org.mineskin.Variant;
 import org.mineskin.Visibility;
-import org.mineskin.data.Skin;
+import org.mineskin.data.MineskinRateLimitException;
 
+import jdk.jfr.FlightRecorder;
+import lombok.Getter;
 import us.jcedeno.skin.SkinToolApplication;
 import us.jcedeno.skin.controllers.SkinController;
+import us.jcedeno.skin.entities.Skin;
+import us.jcedeno.skin.jfr.PersistenceFlushEvent;
+import us.jcedeno.skin.jfr.UploadAttemptEvent;
+import us.jcedeno.skin.jfr.UploadConcurrencyEvent;
+import us.jcedeno.skin.uploader.UploadLimiter.Outcome;
 
 /**
  * A thread that uploads skins to the mojang servers using the mineskin api.
  * Since the mineskin api is extremely unstable, this task will guarantee that
  * all skins get, at some point, uploaded.
  * 
+ * Players are taken from the {@link UploadQueue} so that interactive requests
+ * get the mineskin quota before bulk backfills. Whenever the queue runs dry the
+ * whole collection map is swept and any player with unsigned skins is queued
+ * as bulk work.
+ * 
+ * Uploads run on a pool of workers, as many at once as the
+ * {@link UploadLimiter} allows. A player is uploaded by one job at a time,
+ * jobs for a player that is already being uploaded are dropped since the
+ * running job queues it again if anything is left unsigned.
+ * 
+ * A player whose upload failed is retried after an exponential backoff, and
+ * after a few failures it is retried as bulk work so it can't hold on to the
+ * interactive lane.
+ * 
  * @author jcedeno
  */
 public class UploaderTask extends Thread {
-    private static AtomicBoolean anyChanges = new AtomicBoolean(false);
-    private static Gson gson = new Gson();
+    /** How long the first retry of a failed player waits, doubled on every failure after it. */
+    private static final long RETRY_BACKOFF_MILLIS = 5_000;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /** How many failures a player gets before it's retried as bulk work. */
+    private static final int DEMOTE_AFTER_FAILURES = 3;
+
+    private static Set<UUID> changedPlayers = ConcurrentHashMap.newKeySet();
+    private static @Getter UploadQueue uploadQueue = new UploadQueue(Duration.ofMinutes(5));
+    private static final @Getter SignatureNotifier signatureNotifier = new SignatureNotifier();
+    private static final @Getter TextureRegistry textureRegistry = new TextureRegistry();
+    private static @Getter UploadLimiter uploadLimiter = new UploadLimiter(1, 1, 1);
+    private static ExecutorService uploadWorkers = newUploadWorkers(1);
+    /** The players with uploads running. */
+    private static Set<UUID> uploadingPlayers = ConcurrentHashMap.newKeySet();
+    /** The players whose last upload failed, and when they may be retried. */
+    private static ConcurrentHashMap<UUID, Retry> retries = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("skin-upload-retry").setDaemon(true).build());
+    private static String textureBaseUrl = null;
+    private static long lastFlush = 0;
+
+    /** A player's consecutive failed uploads, and when it may be retried. */
+    record Retry(int failures, long notBefore) {
+    }
+
+    static {
+        FlightRecorder.addPeriodicEvent(UploadConcurrencyEvent.class, () -> {
+            var event = new UploadConcurrencyEvent();
+            event.limit = uploadLimiter.getLimit();
+            event.inFlight = uploadLimiter.getInFlight();
+            event.queued = uploadQueue.size();
+            event.commit();
+        });
+    }
+
+    /**
+     * Replaces the upload queue and limiter, and sets how textures reach
+     * mineskin. Must be called before the task is started.
+     * 
+     * @param bulkAging        How long bulk uploads wait before they compete with
+     *                         interactive ones.
+     * @param textureBaseUrl   The public base url of this service, to have
+     *                         mineskin fetch textures from
+     *                         {@code /skin/png/{hash}}, or null to upload them.
+     * @param maxConcurrency   The most uploads the limiter lets run at once.
+     * @param shortNextRequest The longest {@code nextRequest}, in seconds, after
+     *                         which the limiter still lets more uploads run.
+     */
+    public static void configure(Duration bulkAging, String textureBaseUrl, int maxConcurrency,
+            double shortNextRequest) {
+        uploadQueue = new UploadQueue(bulkAging);
+        UploaderTask.textureBaseUrl = textureBaseUrl;
+        uploadLimiter = new UploadLimiter(1, maxConcurrency, shortNextRequest);
+        uploadWorkers.shutdown();
+        uploadWorkers = newUploadWorkers(uploadLimiter.getMaxLimit());
+    }
+
+    private static ExecutorService newUploadWorkers(int threads) {
+        return Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("skin-upload-%d").setDaemon(true).build());
+    }
+
+    /**
+     * @return The number of players with uploads running.
+     */
+    public static int getUploadingCount() {
+        return uploadingPlayers.size();
+    }
 
+    /**
+     * @return The number of players waiting for an upload, being uploaded or
+     *         backing off after a failed one.
+     */
+    public static int getBacklogSize() {
+        var backingOff = (int) retries.keySet().stream().filter(UploaderTask::isBackingOff).count();
+        return uploadQueue.size() + uploadingPlayers.size() + backingOff;
+    }
 
     @Override
     public void run() {
         while (!Thread.interrupted()) {
-            processSkins();
-
-            // Send the thread to sleep every 500ms.
             try {
-                Thread.sleep(1000);
+                // Wait up to a second for work, then sweep for anything not yet queued.
+                var job = uploadQueue.poll(1, TimeUnit.SECONDS);
+                if (job != null) {
+                    processSkins(job);
+                } else {
+                    queueUnsignedSkins();
+                }
+                // Flush at most once a second, and always when we go idle.
+                if (job == null || System.currentTimeMillis() - lastFlush > 1000)
+                    flushChanges();
+
             } catch (InterruptedException e) {
                 e.printStackTrace();
+                interrupt();
             }
 
         }
     }
 
     /**
-     * Helper function that processes and uploads skins to the mojang servers.
+     * Helper function that queues, as bulk work, every player that still has
+     * skins without a signature.
+     */
+    private static void queueUnsignedSkins() {
+        SkinController.getSkinCollectionMap().forEach((id, skins) -> {
+            if (!uploadingPlayers.contains(id) && !isBackingOff(id) && skins.stream().anyMatch(skin -> skin.getSignature() == null))
+                uploadQueue.offer(id, Priority.BULK);
+        });
+    }
+
+    /**
+     * Helper function that processes and uploads a player's skins to the mojang
+     * servers. Each unsigned skin waits for a slot from the limiter and is then
+     * uploaded by a worker. If any upload fails the player is retried later, so
+     * it doesn't hold up everyone else behind it. Jobs of players that are
+     * backing off are dropped, their retry is already scheduled.
      * 
+     * @param job The queued job of the player.
      */
-    private static void processSkins() {
-        SkinController.getSkinCollectionMap().entrySet().parallelStream().forEach(e -> {
-            e.getValue().stream().filter(ep -> ep.getSignature() == null).forEach(skins -> {
-                try {
-                    var attempt = attemptUpload(skins.getValue(), skins.isSlim());
-                    // Loop until the skin is uploaded
-                    while (attempt == null) {
-                        // Try Again
-                        attempt = attemptUpload(skins.getValue(), skins.isSlim());
-                    }
-                    if (attempt != null) {
-                        // Update the skin with the new signature
-                        skins.setSignature(attempt.data.texture.signature);
-                        skins.setValue(attempt.data.texture.value);
-
-                        // Notify of changes later.
-                        if (!anyChanges.get())
-                            anyChanges.set(true);
-
-                        // Log success
-                        System.out.println("Successfully uploaded skin: " + skins.getName() + " for " + e.getKey());
-                    }
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
+    private static void processSkins(UploadQueue.Job job) throws InterruptedException {
+        var skinList = SkinController.getSkinCollectionMap().get(job.id());
+        if (skinList == null || isBackingOff(job.id()) || !uploadingPlayers.add(job.id()))
+            return;
 
-            });
-        });
-        if (anyChanges.get()) {
-            System.out.println("There are changes on the skins. Writing to database.");
+        var failed = new AtomicBoolean(false);
+        var uploads = new ArrayList<CompletableFuture<Void>>();
+        try {
+            for (var skins : skinList) {
+                if (skins.getSignature() != null)
+                    continue;
+                var permit = uploadLimiter.acquire();
+                uploads.add(CompletableFuture.runAsync(() -> {
+                    if (!uploadSkin(job.id(), skins, permit))
+                        failed.set(true);
+                }, uploadWorkers));
+            }
+        } finally {
+            CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new))
+                    .whenComplete((result, error) -> finishJob(job, failed.get() || error != null));
+        }
+    }
 
-            var map = new HashMap<String, String>();
-            var entries = SkinController.getSkinCollectionMap().entrySet();
-            entries.forEach(a -> {
-                map.put(a.getKey().toString(), gson.toJson(a.getValue()));
-            });
+    /**
+     * Helper function that uploads one skin of a player, swaps the signed version
+     * into the collection and hands the permit back with the outcome.
+     * 
+     * @return false if the upload failed.
+     */
+    private static boolean uploadSkin(UUID id, Skin skins, UploadLimiter.Permit permit) {
+        org.mineskin.data.Skin attempt;
+        try {
+            attempt = attemptUpload(id, skins.getName(), skins.getValue(), skins.isSlim());
+        } catch (Exception ex) {
+            uploadLimiter.release(permit, outcomeOf(ex), 0);
+            return false;
+        }
+        uploadLimiter.release(permit, Outcome.SUCCESS, attempt.nextRequest);
+
+        // Swap in the signed skin, unless the collection was replaced meanwhile.
+        if (!replaceSkin(id, skins,
+                skin -> skin.withSignature(attempt.data.texture.signature, attempt.data.texture.value)))
+            return true;
+        SkinController.invalidateResponses(id);
 
-            SkinToolApplication.getCacheController().getRedisConnection().async().hmset("skins", map);
+        // Notify of changes later.
+        changedPlayers.add(id);
 
-            anyChanges.set(false);
+        // Log success
+        System.out.println("Successfully uploaded skin: " + skins.getName() + " for " + id);
+        return true;
+    }
+
+    /**
+     * Helper function that wraps up a player's job once all its uploads are done.
+     * 
+     * @param job    The job of the player.
+     * @param failed Whether any of the uploads failed.
+     */
+    private static void finishJob(UploadQueue.Job job, boolean failed) {
+        uploadingPlayers.remove(job.id());
+        // Try Again later, or wake up anyone waiting on the signatures.
+        var current = SkinController.getSkinCollectionMap().get(job.id());
+        if (current == null) {
+            retries.remove(job.id());
+            return;
+        }
+        if (SignatureNotifier.isSigned(current)) {
+            retries.remove(job.id());
+            SkinToolApplication.getAdmissionController().recordDrained();
+            signatureNotifier.signed(job.id(), current);
+        } else if (failed) {
+            scheduleRetry(job);
+        } else {
+            // Skins were added while the job was running.
+            uploadQueue.offer(job.id(), job.priority());
+        }
+    }
+
+    /**
+     * Helper function that queues a failed player again once its backoff is
+     * over, doubling the backoff with every consecutive failure and demoting the
+     * player to bulk work after a few of them.
+     * 
+     * @param job The failed job of the player.
+     */
+    private static void scheduleRetry(UploadQueue.Job job) {
+        var previous = retries.get(job.id());
+        var failures = previous == null ? 1 : previous.failures() + 1;
+        var delay = Math.min(MAX_RETRY_BACKOFF_MILLIS, RETRY_BACKOFF_MILLIS << Math.min(failures - 1, 20));
+        var priority = failures >= DEMOTE_AFTER_FAILURES ? Priority.BULK : job.priority();
+
+        retries.put(job.id(), new Retry(failures, System.currentTimeMillis() + delay));
+        retryScheduler.schedule(() -> uploadQueue.offer(job.id(), priority), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if the player's last upload failed and its backoff isn't over.
+     */
+    private static boolean isBackingOff(UUID id) {
+        var retry = retries.get(id);
+        return retry != null && retry.notBefore() > System.currentTimeMillis();
+    }
+
+    /**
+     * @return How a failed upload tells the limiter about the load on mineskin.
+     */
+    static Outcome outcomeOf(Throwable failure) {
+        for (var cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MineskinRateLimitException)
+                return Outcome.RATE_LIMITED;
+            if (cause instanceof SocketTimeoutException)
+                return Outcome.TIMEOUT;
+        }
+        return Outcome.FAILED;
+    }
+
+    /**
+     * Atomically replaces a skin in a player's collection with a new version of
+     * it, by swapping in a copy of the whole collection. If only the source of
+     * the skin was recorded meanwhile, that version of it is replaced instead.
+     * 
+     * @param id     The UUID of the player.
+     * @param skin   The skin to replace.
+     * @param update Builds the new version from the skin in the collection.
+     * @return false if the skin is no longer part of the player's collection.
+     */
+    static boolean replaceSkin(UUID id, Skin skin, UnaryOperator<Skin> update) {
+        var map = SkinController.getSkinCollectionMap();
+        while (true) {
+            var current = map.get(id);
+            var match = current == null ? null
+                    : current.stream().filter(s -> s == skin || s.isSameSkin(skin)).findFirst().orElse(null);
+            if (match == null)
+                return false;
+
+            var updated = update.apply(match);
+            var replaced = current.stream().map(s -> s == match ? updated : s).toList();
+            if (map.replace(id, current, replaced))
+                return true;
+        }
+    }
+
+    /**
+     * Helper function that persists the collections of the players whose skins
+     * changed since the last flush.
+     */
+    private static void flushChanges() {
+        lastFlush = System.currentTimeMillis();
+        if (!changedPlayers.isEmpty()) {
+            System.out.println("There are changes on the skins. Writing to database.");
+
+            var event = new PersistenceFlushEvent();
+            event.begin();
+            for (var id : changedPlayers) {
+                changedPlayers.remove(id);
+                var skins = SkinController.getSkinCollectionMap().get(id);
+                if (skins != null) {
+                    SkinToolApplication.getPersistenceController().save(id, skins);
+                    event.players++;
+                }
+            }
+            event.commit();
 
         }
     }
 
     /**
      * A method that attempts uploading a skin to the mineskin api. This function is
-     * epxected to fail.
+     * epxected to fail. Every attempt is recorded as an {@link UploadAttemptEvent}.
+     * 
+     * If a public base url is configured, the skin is served by this service and
+     * mineskin is given its url instead of the file itself.
      * 
+     * @param id         the UUID of the player the skin belongs to
+     * @param name       the name of the skin variant
      * @param skinBase64 the base64 encoded skin
-     * @return the uploaded skin, if successful.
-     * @throws IOException When the skin can't be written as a file in the local
-     *                     disk for permissions reasons.
+     * @return the uploaded skin.
+     * @throws Exception When the upload fails, or the skin can't be written as a
+     *                   file in the local disk for permissions reasons.
      */
-    static Skin attemptUpload(String skinBase64, boolean bool) throws IOException {
-        // Translate the skinBase64 to a file
+    static org.mineskin.data.Skin attemptUpload(UUID id, String name, String skinBase64, boolean bool)
+            throws Exception {
+        var event = new UploadAttemptEvent();
+        event.begin();
+
         var skin = Base64.getDecoder().decode(skinBase64);
-        var skinFile = new File("skin_" + UUID.randomUUID().toString().split("-")[0] + ".png");
-        var skinFileOutputStream = new FileOutputStream(skinFile);
-        skinFileOutputStream.write(skin);
+        org.mineskin.data.Skin skinObject = null;
+        Exception failure = null;
+        var variant = bool ? Variant.SLIM : Variant.CLASSIC;
+        var options = SkinOptions.create("", variant, Visibility.PUBLIC);
+
+        if (textureBaseUrl != null) {
+            // Serve the skin until mineskin is done fetching it
+            var hash = textureRegistry.register(skin);
+            try {
+                skinObject = SkinToolApplication.getMineskinClient()
+                        .generateUrl(textureBaseUrl + "/skin/png/" + hash, options).get();
+                event.outcome = "success";
+            } catch (Exception e) {
+                failure = e;
+                event.outcome = (e.getCause() != null ? e.getCause() : e).toString();
+                e.printStackTrace();
+            } finally {
+                textureRegistry.release(hash);
+            }
+        } else {
+            // Translate the skinBase64 to a file
+            var skinFile = new File("skin_" + UUID.randomUUID().toString().split("-")[0] + ".png");
+            var skinFileOutputStream = new FileOutputStream(skinFile);
+            skinFileOutputStream.write(skin);
 
-        skinFileOutputStream.close();
-        Skin skinObject = null;
+            skinFileOutputStream.close();
 
-        try {
-            skinObject = SkinToolApplication.getMineskinClient().generateUpload(skinFile,
-                    SkinOptions.create("", bool ? Variant.SLIM : Variant.CLASSIC, Visibility.PUBLIC)).get();
-        } catch (Exception e) {
-            e.printStackTrace();
+            try {
+                skinObject = SkinToolApplication.getMineskinClient().generateUpload(skinFile, options).get();
+                event.outcome = "success";
+            } catch (Exception e) {
+                failure = e;
+                event.outcome = (e.getCause() != null ? e.getCause() : e).toString();
+                e.printStackTrace();
+            }
+
+            skinFile.delete();
         }
 
-        skinFile.delete();
+        event.end();
+        if (event.shouldCommit()) {
+            event.uuid = id.toString();
+            event.skinName = name;
+            event.variant = variant.getName();
+            event.mode = textureBaseUrl != null ? "url" : "upload";
+            event.bytes = skin.length;
+            event.commit();
+        }
 
+        if (failure != null)
+            throw failure;
         return skinObject;
 
     }
@@ -0,0 +1,61 @@
+package us.jcedeno.skin.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class ConsistentHashRingTests {
+	private static final List<UUID> PLAYERS = IntStream.range(0, 10_000).mapToObj(i -> UUID.randomUUID()).toList();
+
+	@Test
+	void ownershipDoesNotDependOnMemberOrder() {
+		var ring = new ConsistentHashRing(List.of("http://a", "http://b", "http://c"), 128);
+		var shuffled = new ConsistentHashRing(List.of("http://c", "http://a", "http://b"), 128);
+
+		for (var id : PLAYERS)
+			assertEquals(ring.ownerOf(id), shuffled.ownerOf(id));
+	}
+
+	@Test
+	void spreadsPlayersEvenly() {
+		var ring = new ConsistentHashRing(List.of("http://a", "http://b", "http://c", "http://d"), 128);
+
+		var owned = new HashMap<String, Integer>();
+		for (var id : PLAYERS)
+			owned.merge(ring.ownerOf(id), 1, Integer::sum);
+
+		assertEquals(4, owned.size());
+		// Within 25% of a perfect quarter each.
+		owned.values().forEach(count -> assertTrue(Math.abs(count - 2_500) < 625, owned::toString));
+	}
+
+	@Test
+	void joiningNodeOnlyTakesPlayersForItself() {
+		var before = new ConsistentHashRing(List.of("http://a", "http://b", "http://c"), 128);
+		var after = new ConsistentHashRing(List.of("http://a", "http://b", "http://c", "http://d"), 128);
+
+		var moved = 0;
+		for (var id : PLAYERS) {
+			var owner = after.ownerOf(id);
+			if (!owner.equals(before.ownerOf(id))) {
+				assertEquals("http://d", owner);
+				moved++;
+			}
+		}
+		// Roughly a quarter of the players move to the new node.
+		assertTrue(moved > 1_500 && moved < 3_500, "moved " + moved);
+	}
+
+	@Test
+	void emptyRingOwnsNothing() {
+		assertNull(new ConsistentHashRing(List.of(), 128).ownerOf(UUID.randomUUID()));
+	}
+
+}
@@ -0,0 +1,234 @@
+package us.jcedeno.skin.loadtest;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
+
+import us.jcedeno.skin.SkinToolApplication;
+import us.jcedeno.skin.controllers.SkinController;
+import us.jcedeno.skin.uploader.SignatureNotifier;
+import us.jcedeno.skin.uploader.UploaderTask;
+
+/**
+ * Drives the whole pipeline (python generation, admission, storage, the upload
+ * queue and the read path) against {@link UpstreamStub} instead of the real
+ * upstreams, and prints throughput and latency percentiles for every phase.
+ * 
+ * Excluded from {@code gradle test}, run it with {@code gradle loadTest}. The
+ * size of the run is configured through {@code loadtest.*} system properties
+ * and the stub through {@code stub.*} ones.
+ * 
+ * @author jcedeno
+ */
+@Tag("load")
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class PipelineLoadTest {
+	private static final int PLAYERS = Integer.getInteger("loadtest.players", 500);
+	private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 32);
+	private static final int BATCH_SIZE = Integer.getInteger("loadtest.batchSize", 50);
+	private static final int READS = Integer.getInteger("loadtest.reads", 20_000);
+	private static final int REFRESH_CHANGED_PERCENT = Integer.getInteger("loadtest.refreshChangedPercent", 5);
+	private static final Duration UPLOAD_WINDOW = Duration.ofSeconds(Long.getLong("loadtest.uploadWindowSeconds", 30));
+
+	private static final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+	private static final List<UUID> created = new ArrayList<>();
+	private static final List<UUID> added = new ArrayList<>();
+
+	private static UpstreamStub stub;
+	private static ExecutorService workers;
+	private static String base;
+
+	@BeforeAll
+	static void start(@TempDir Path dataDir) throws IOException {
+		stub = new UpstreamStub(0, UpstreamStub.Config.fromSystemProperties());
+		workers = Executors.newFixedThreadPool(CONCURRENCY);
+
+		System.setProperty("SKIN_TOOL_PYTHON_URI", stub.getPythonUri());
+		System.setProperty("MINESKIN_API_BASE", stub.getMineskinApiBase());
+		System.setProperty("SESSION_SERVER_URI", stub.getSessionServerUri());
+		System.setProperty("SESSION_SERVER_RATE", "0");
+		System.setProperty("SKIN_STORE_DIR", dataDir.toString());
+
+		var port = freePort();
+		base = "http://localhost:" + port;
+		// Have the stub fetch textures from us instead of receiving uploads
+		if (System.getProperty("loadtest.uploadMode", "upload").equals("url")) {
+			System.setProperty("UPLOAD_MODE", "url");
+			System.setProperty("PUBLIC_BASE_URL", base);
+		}
+		SkinToolApplication.main(new String[] { "--server.port=" + port });
+
+		for (var i = 0; i < PLAYERS; i++) {
+			created.add(UUID.randomUUID());
+			added.add(UUID.randomUUID());
+		}
+	}
+
+	@AfterAll
+	static void stop() {
+		workers.shutdownNow();
+		stub.stop();
+	}
+
+	@Test
+	@Order(1)
+	void interactiveCreate() throws Exception {
+		var result = run("PUT /skin/create", created, id -> HttpRequest
+				.newBuilder(URI.create(base + "/skin/create/" + id)).PUT(BodyPublishers.noBody()).build());
+		assertTrue(result.ok() > 0, "no create request succeeded");
+	}
+
+	@Test
+	@Order(2)
+	void bulkAdd() throws Exception {
+		var batches = new ArrayList<List<UUID>>();
+		for (var i = 0; i < added.size(); i += BATCH_SIZE)
+			batches.add(added.subList(i, Math.min(i + BATCH_SIZE, added.size())));
+
+		var result = run("POST /skin/add", batches, batch -> HttpRequest.newBuilder(URI.create(base + "/skin/add"))
+				.header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofString(batch.stream().map(id -> '"' + id.toString() + '"')
+						.collect(Collectors.joining(",", "[", "]"))))
+				.build());
+		assertTrue(result.ok() > 0, "no add request succeeded");
+	}
+
+	@Test
+	@Order(3)
+	void reads() throws Exception {
+		var ids = new ArrayList<UUID>(READS);
+		for (var i = 0; i < READS; i++)
+			ids.add(created.get(i % created.size()));
+
+		var result = run("GET /skin/get", ids, id -> HttpRequest.newBuilder(URI.create(base + "/skin/get/" + id))
+				.header("Accept-Encoding", "gzip").GET().build());
+		assertTrue(result.ok() > 0, "no read request succeeded");
+	}
+
+	@Test
+	@Order(4)
+	void refresh() throws Exception {
+		// A few players change skin, everyone else should cost a single lookup.
+		var changed = created.subList(0, Math.max(1, created.size() * REFRESH_CHANGED_PERCENT / 100));
+		changed.forEach(stub::changeSkin);
+
+		var batches = new ArrayList<List<UUID>>();
+		for (var i = 0; i < created.size(); i += BATCH_SIZE)
+			batches.add(created.subList(i, Math.min(i + BATCH_SIZE, created.size())));
+
+		var pythonBefore = stub.getPythonRequests();
+		var result = run("POST /skin/refresh", batches, batch -> HttpRequest
+				.newBuilder(URI.create(base + "/skin/refresh")).header("Content-Type", "application/json")
+				.POST(BodyPublishers.ofString(batch.stream().map(id -> '"' + id.toString() + '"')
+						.collect(Collectors.joining(",", "[", "]"))))
+				.build());
+		System.out.printf("refresh: %d players changed skin, %d python requests%n", changed.size(),
+				stub.getPythonRequests() - pythonBefore);
+		assertTrue(result.ok() > 0, "no refresh request succeeded");
+	}
+
+	@Test
+	@Order(5)
+	void uploads() throws InterruptedException {
+		// Uploads are bounded by mineskin's rate limit rather than by us, so measure
+		// how many collections get signed within a fixed window instead of waiting
+		// for the whole backlog.
+		var before = signedPlayers();
+		var requestsBefore = stub.getMineskinRequests();
+		Thread.sleep(UPLOAD_WINDOW.toMillis());
+		var signed = signedPlayers() - before;
+		var requests = stub.getMineskinRequests() - requestsBefore;
+
+		var seconds = UPLOAD_WINDOW.toMillis() / 1000d;
+		System.out.printf(
+				"uploads: %d collections signed, %d mineskin requests in %.0fs (%.2f req/s), %d texture fetches, %d still queued%n",
+				signed, requests, seconds, requests / seconds, stub.getTextureFetches(),
+				UploaderTask.getUploadQueue().size());
+	}
+
+	private static long signedPlayers() {
+		return SkinController.getSkinCollectionMap().values().stream().filter(SignatureNotifier::isSigned).count();
+	}
+
+	private record Result(int ok, int rejected, int failed) {
+	}
+
+	/**
+	 * Sends one request per input with {@link #CONCURRENCY} requests in flight,
+	 * then prints the throughput and latency percentiles of the phase.
+	 */
+	private static <T> Result run(String phase, List<T> inputs, Function<T, HttpRequest> request)
+			throws InterruptedException {
+		var latencies = new long[inputs.size()];
+		var statuses = new ConcurrentHashMap<Integer, AtomicInteger>();
+		var index = new AtomicInteger();
+		var done = new CountDownLatch(inputs.size());
+
+		var start = System.nanoTime();
+		for (var input : inputs) {
+			workers.execute(() -> {
+				var began = System.nanoTime();
+				int status;
+				try {
+					status = http.send(request.apply(input), BodyHandlers.discarding()).statusCode();
+				} catch (IOException | InterruptedException e) {
+					status = -1;
+				}
+				latencies[index.getAndIncrement()] = System.nanoTime() - began;
+				statuses.computeIfAbsent(status, s -> new AtomicInteger()).incrementAndGet();
+				done.countDown();
+			});
+		}
+		done.await();
+		var elapsed = (System.nanoTime() - start) / 1e9;
+
+		Arrays.sort(latencies);
+		var ok = statuses.getOrDefault(200, new AtomicInteger()).get();
+		var rejected = statuses.getOrDefault(429, new AtomicInteger()).get();
+		System.out.printf(
+				"%s: %d requests in %.2fs (%.1f req/s), p50 %.1fms, p90 %.1fms, p99 %.1fms, max %.1fms, statuses %s%n",
+				phase, inputs.size(), elapsed, inputs.size() / elapsed, percentile(latencies, 0.50),
+				percentile(latencies, 0.90), percentile(latencies, 0.99), percentile(latencies, 1), statuses);
+		return new Result(ok, rejected, inputs.size() - ok - rejected);
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		var i = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(i, sorted.length - 1))] / 1e6;
+	}
+
+	private static int freePort() throws IOException {
+		try (var socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+}
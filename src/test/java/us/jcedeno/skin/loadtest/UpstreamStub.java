@@ -0,0 +1,298 @@
+package us.jcedeno.skin.loadtest;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for every upstream of the application, so the whole pipeline
+ * can be exercised offline.
+ * 
+ * skin-tool-python is served under {@code /python/{uuid}} and returns a number
+ * of generated 64x64 skin variants per player. The mineskin api is served under
+ * {@code /mineskin}, with the generate endpoints returning a fake signed
+ * texture (the url one only after fetching the given url successfully) and the
+ * get endpoints returning a fake existing skin. The mojang session server
+ * profile endpoint returns a texture that only changes after
+ * {@link #changeSkin(UUID)}. Every request waits for the configured latency,
+ * fails with the configured error rate and mineskin responses carry the
+ * configured {@code nextRequest}.
+ * 
+ * Can be run on its own with the {@code upstreamStub} gradle task, see
+ * {@link #main(String[])}.
+ * 
+ * @author jcedeno
+ */
+public class UpstreamStub {
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final Config config;
+	private final AtomicInteger nextSkinId = new AtomicInteger();
+	private final AtomicLong pythonRequests = new AtomicLong();
+	private final AtomicLong mineskinRequests = new AtomicLong();
+	private final AtomicLong textureFetches = new AtomicLong();
+	private final AtomicLong profileRequests = new AtomicLong();
+	private final ConcurrentHashMap<UUID, Integer> skinChanges = new ConcurrentHashMap<>();
+	private final HttpClient http = HttpClient.newHttpClient();
+
+	/**
+	 * @param latencyMillis      How long every request takes.
+	 * @param errorRate          The fraction of requests that fail, 0 to 1.
+	 * @param nextRequestSeconds The {@code nextRequest} of mineskin responses.
+	 * @param variants           How many skin variants python generates per
+	 *                           player.
+	 */
+	public record Config(long latencyMillis, double errorRate, double nextRequestSeconds, int variants) {
+
+		/** Reads the config from {@code stub.*} system properties. */
+		public static Config fromSystemProperties() {
+			return new Config(Long.getLong("stub.latencyMillis", 50),
+					Double.parseDouble(System.getProperty("stub.errorRate", "0.05")),
+					Double.parseDouble(System.getProperty("stub.nextRequestSeconds", "0")),
+					Integer.getInteger("stub.variants", 4));
+		}
+	}
+
+	public UpstreamStub(int port, Config config) throws IOException {
+		this.config = config;
+		this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.setExecutor(executor);
+		server.createContext("/python/", this::python);
+		server.createContext("/mineskin/generate/", this::mineskinGenerate);
+		server.createContext("/mineskin/get/", this::mineskinGet);
+		server.createContext("/session/minecraft/profile/", this::profile);
+		server.start();
+	}
+
+	public static void main(String[] args) throws IOException {
+		var port = args.length > 0 ? Integer.parseInt(args[0]) : 8070;
+		var stub = new UpstreamStub(port, Config.fromSystemProperties());
+		System.out.println("Upstream stub listening with " + stub.config);
+		System.out.println("SKIN_TOOL_PYTHON_URI=" + stub.getPythonUri());
+		System.out.println("MINESKIN_API_BASE=" + stub.getMineskinApiBase());
+		System.out.println("SESSION_SERVER_URI=" + stub.getSessionServerUri());
+	}
+
+	public String getPythonUri() {
+		return "http://localhost:" + server.getAddress().getPort() + "/python";
+	}
+
+	public String getMineskinApiBase() {
+		return "http://localhost:" + server.getAddress().getPort() + "/mineskin";
+	}
+
+	public String getSessionServerUri() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	/** Makes a player wear a different skin from now on. */
+	public void changeSkin(UUID id) {
+		skinChanges.merge(id, 1, Integer::sum);
+	}
+
+	public long getProfileRequests() {
+		return profileRequests.get();
+	}
+
+	public long getPythonRequests() {
+		return pythonRequests.get();
+	}
+
+	public long getMineskinRequests() {
+		return mineskinRequests.get();
+	}
+
+	public long getTextureFetches() {
+		return textureFetches.get();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void python(HttpExchange exchange) throws IOException {
+		pythonRequests.incrementAndGet();
+		if (simulate(exchange))
+			return;
+
+		var path = exchange.getRequestURI().getPath();
+		var id = UUID.fromString(path.substring(path.lastIndexOf('/') + 1));
+		var data = new JsonObject();
+		for (var variant = 0; variant < config.variants(); variant++)
+			data.addProperty("variant_" + variant, Base64.getEncoder().encodeToString(skinPng(id, variant)));
+
+		var response = new JsonObject();
+		response.add("data", data);
+		response.addProperty("slim", (id.getLeastSignificantBits() & 1) == 1);
+		respond(exchange, 200, response);
+	}
+
+	private void mineskinGenerate(HttpExchange exchange) throws IOException {
+		mineskinRequests.incrementAndGet();
+		if (exchange.getRequestURI().getPath().endsWith("/url")) {
+			// Fetch the texture like mineskin would, failing if it isn't served.
+			var body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+			var url = JsonParser.parseString(body).getAsJsonObject().get("url").getAsString();
+			if (!fetchTexture(url)) {
+				var error = new JsonObject();
+				error.addProperty("error", "Failed to download image from " + url);
+				respond(exchange, 400, error);
+				return;
+			}
+		} else {
+			// Drain the upload, the contents don't matter.
+			exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+		}
+		if (simulate(exchange))
+			return;
+		respond(exchange, 200, mineskinSkin(UUID.randomUUID()));
+	}
+
+	private boolean fetchTexture(String url) {
+		textureFetches.incrementAndGet();
+		try {
+			var response = http.send(HttpRequest.newBuilder(URI.create(url)).build(), BodyHandlers.ofByteArray());
+			return response.statusCode() == 200 && ImageIO.read(new ByteArrayInputStream(response.body())) != null;
+		} catch (IOException | IllegalArgumentException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void profile(HttpExchange exchange) throws IOException {
+		profileRequests.incrementAndGet();
+		if (simulate(exchange))
+			return;
+
+		var path = exchange.getRequestURI().getPath();
+		var undashed = path.substring(path.lastIndexOf('/') + 1);
+		var id = UUID.fromString(undashed.replaceFirst("(\\w{8})(\\w{4})(\\w{4})(\\w{4})(\\w{12})", "$1-$2-$3-$4-$5"));
+		// The texture hash changes whenever the player changes skin.
+		var hash = UUID.nameUUIDFromBytes((id + "#" + skinChanges.getOrDefault(id, 0)).getBytes(StandardCharsets.UTF_8))
+				.toString().replace("-", "");
+		var textures = "{\"textures\":{\"SKIN\":{\"url\":\"http://textures.minecraft.net/texture/" + hash + "\"}}}";
+
+		var property = new JsonObject();
+		property.addProperty("name", "textures");
+		property.addProperty("value", Base64.getEncoder().encodeToString(textures.getBytes(StandardCharsets.UTF_8)));
+		var properties = new JsonArray();
+		properties.add(property);
+
+		var profile = new JsonObject();
+		profile.addProperty("id", undashed);
+		profile.addProperty("name", "Player" + undashed.substring(0, 8));
+		profile.add("properties", properties);
+		respond(exchange, 200, profile);
+	}
+
+	private void mineskinGet(HttpExchange exchange) throws IOException {
+		mineskinRequests.incrementAndGet();
+		if (simulate(exchange))
+			return;
+		var path = exchange.getRequestURI().getPath();
+		var key = path.substring(path.lastIndexOf('/') + 1);
+		// Stable per key, so repeated lookups see the same texture.
+		respond(exchange, 200, mineskinSkin(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8))));
+	}
+
+	/**
+	 * Applies the configured latency and error rate.
+	 * 
+	 * @return true if the request was failed and already answered.
+	 */
+	private boolean simulate(HttpExchange exchange) throws IOException {
+		try {
+			Thread.sleep(config.latencyMillis());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (ThreadLocalRandom.current().nextDouble() >= config.errorRate())
+			return false;
+
+		var error = new JsonObject();
+		error.addProperty("error", "Simulated failure");
+		respond(exchange, 500, error);
+		return true;
+	}
+
+	private JsonObject mineskinSkin(UUID textureId) {
+		var random = new Random(textureId.getMostSignificantBits());
+		var signature = new byte[512];
+		random.nextBytes(signature);
+		var url = "http://textures.minecraft.net/texture/" + textureId.toString().replace("-", "");
+
+		var texture = new JsonObject();
+		texture.addProperty("value", Base64.getEncoder().encodeToString(
+				("{\"textures\":{\"SKIN\":{\"url\":\"" + url + "\"}}}").getBytes(StandardCharsets.UTF_8)));
+		texture.addProperty("signature", Base64.getEncoder().encodeToString(signature));
+		texture.addProperty("url", url);
+
+		var data = new JsonObject();
+		data.addProperty("uuid", textureId.toString());
+		data.add("texture", texture);
+
+		var skin = new JsonObject();
+		skin.addProperty("id", nextSkinId.incrementAndGet());
+		skin.addProperty("uuid", textureId.toString());
+		skin.addProperty("name", "");
+		skin.add("data", data);
+		skin.addProperty("timestamp", System.currentTimeMillis() / 1000);
+		skin.addProperty("nextRequest", config.nextRequestSeconds());
+		return skin;
+	}
+
+	/** A deterministic skin png for a player and variant. */
+	private static byte[] skinPng(UUID id, int variant) {
+		var random = new Random(id.getMostSignificantBits() ^ id.getLeastSignificantBits() ^ variant);
+		var image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+		for (var y = 0; y < 64; y++)
+			for (var x = 0; x < 64; x++)
+				image.setRGB(x, y, 0xff000000 | random.nextInt(8) * 0x201008);
+		try {
+			var bytes = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", bytes);
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, JsonObject body) throws IOException {
+		var bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (var output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+
+}
@@ -0,0 +1,40 @@
+package us.jcedeno.skin.mojang;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.jupiter.api.Test;
+
+class SessionServerClientTests {
+
+	@Test
+	void fingerprintsTheTextureHash() {
+		assertEquals("abc123", SessionServerClient.fingerprint(profile(
+				"{\"textures\":{\"SKIN\":{\"url\":\"http://textures.minecraft.net/texture/abc123\"}}}")));
+	}
+
+	@Test
+	void slimModelChangesTheFingerprint() {
+		assertEquals("abc123:slim", SessionServerClient.fingerprint(profile(
+				"{\"textures\":{\"SKIN\":{\"url\":\"http://textures.minecraft.net/texture/abc123\",\"metadata\":{\"model\":\"slim\"}}}}")));
+	}
+
+	@Test
+	void playersWithoutSkinWearTheDefault() {
+		assertEquals(SessionServerClient.DEFAULT_SKIN, SessionServerClient.fingerprint(profile("{\"textures\":{}}")));
+		assertEquals(SessionServerClient.DEFAULT_SKIN,
+				SessionServerClient.fingerprint(JsonParser.parseString("{\"properties\":[]}").getAsJsonObject()));
+	}
+
+	private static JsonObject profile(String textures) {
+		var value = Base64.getEncoder().encodeToString(textures.getBytes(StandardCharsets.UTF_8));
+		return JsonParser.parseString("{\"id\":\"0\",\"properties\":[{\"name\":\"textures\",\"value\":\"" + value + "\"}]}")
+				.getAsJsonObject();
+	}
+
+}
@@ -0,0 +1,47 @@
+package us.jcedeno.skin.png;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+class PngCanonicalizerTests {
+
+	@Test
+	void canonicalizationIsLosslessAndStable() throws IOException {
+		var skin = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+		for (var y = 0; y < 64; y++)
+			for (var x = 0; x < 64; x++)
+				skin.setRGB(x, y, (x + y) % 3 == 0 ? 0x00ff0000 : 0xff000000 | (x * 4 << 8) | y * 4);
+
+		var canonical = PngCanonicalizer.canonicalize(png(skin));
+		var decoded = ImageIO.read(new ByteArrayInputStream(canonical));
+		for (var y = 0; y < 64; y++)
+			for (var x = 0; x < 64; x++)
+				assertEquals(skin.getRGB(x, y), decoded.getRGB(x, y));
+
+		assertArrayEquals(canonical, PngCanonicalizer.canonicalize(canonical));
+	}
+
+	@Test
+	void rejectsNonSkinSizes() throws IOException {
+		var image = png(new BufferedImage(128, 128, BufferedImage.TYPE_INT_ARGB));
+		assertThrows(IllegalArgumentException.class, () -> PngCanonicalizer.canonicalize(image));
+		assertThrows(IllegalArgumentException.class, () -> PngCanonicalizer.canonicalize(new byte[] { 1, 2, 3 }));
+	}
+
+	private static byte[] png(BufferedImage image) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", bytes);
+		return bytes.toByteArray();
+	}
+
+}
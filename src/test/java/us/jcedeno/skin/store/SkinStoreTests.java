@@ -0,0 +1,67 @@
+package us.jcedeno.skin.store;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SkinStoreTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void reopenRebuildsIndex() throws IOException {
+		var kept = UUID.randomUUID();
+		var deleted = UUID.randomUUID();
+
+		var store = new SkinStore(directory, 4096);
+		store.put(kept, bytes("first"));
+		store.put(deleted, bytes("gone"));
+		store.put(kept, bytes("second"));
+		store.delete(deleted);
+		store.close();
+
+		var reopened = new SkinStore(directory, 4096);
+		assertEquals(1, reopened.size());
+		assertArrayEquals(bytes("second"), reopened.get(kept));
+		assertNull(reopened.get(deleted));
+		reopened.close();
+	}
+
+	@Test
+	void compactionKeepsNewestRecords() throws IOException {
+		var store = new SkinStore(directory, 1024);
+		var ids = new ArrayList<UUID>();
+		for (var i = 0; i < 100; i++) {
+			ids.add(UUID.randomUUID());
+			store.put(ids.get(i), bytes("old-" + i));
+		}
+		for (var i = 0; i < 100; i++)
+			store.put(ids.get(i), bytes("new-" + i));
+		for (var i = 0; i < 10; i++)
+			store.delete(ids.get(i));
+
+		store.compact();
+		store.close();
+
+		var reopened = new SkinStore(directory, 1024);
+		assertEquals(90, reopened.size());
+		assertNull(reopened.get(ids.get(0)));
+		assertArrayEquals(bytes("new-50"), reopened.get(ids.get(50)));
+		reopened.close();
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,40 @@
+package us.jcedeno.skin.uploader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class TextureRegistryTests {
+
+	@Test
+	void servesTexturesUntilReleased() {
+		var registry = new TextureRegistry();
+		var png = new byte[] { 1, 2, 3 };
+
+		var hash = registry.register(png);
+		assertEquals(TextureRegistry.hash(png), hash);
+		assertArrayEquals(png, registry.get(hash));
+
+		registry.release(hash);
+		assertNull(registry.get(hash));
+	}
+
+	@Test
+	void identicalTexturesShareAnEntry() {
+		var registry = new TextureRegistry();
+
+		var first = registry.register(new byte[] { 4, 5, 6 });
+		var second = registry.register(new byte[] { 4, 5, 6 });
+		assertEquals(first, second);
+		assertEquals(1, registry.size());
+
+		// Still served to the second upload after the first one is done
+		registry.release(first);
+		assertArrayEquals(new byte[] { 4, 5, 6 }, registry.get(second));
+		registry.release(second);
+		assertEquals(0, registry.size());
+	}
+
+}
@@ -0,0 +1,78 @@
+package us.jcedeno.skin.uploader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import us.jcedeno.skin.uploader.UploadLimiter.Outcome;
+
+class UploadLimiterTests {
+
+	@Test
+	void growsByOnePerRoundOfShortSuccesses() throws InterruptedException {
+		var limiter = new UploadLimiter(1, 8, 1);
+		assertEquals(1, limiter.getLimit());
+
+		limiter.release(limiter.acquire(), Outcome.SUCCESS, 0);
+		assertEquals(2, limiter.getLimit());
+
+		// Each success adds 1 / limit, so about a round of successes adds one.
+		limiter.release(limiter.acquire(), Outcome.SUCCESS, 0);
+		limiter.release(limiter.acquire(), Outcome.SUCCESS, 0);
+		assertEquals(2, limiter.getLimit());
+		limiter.release(limiter.acquire(), Outcome.SUCCESS, 0);
+		assertEquals(3, limiter.getLimit());
+	}
+
+	@Test
+	void longNextRequestDoesNotGrow() throws InterruptedException {
+		var limiter = new UploadLimiter(1, 8, 1);
+		limiter.release(limiter.acquire(), Outcome.SUCCESS, 5);
+		assertEquals(1, limiter.getLimit());
+	}
+
+	@Test
+	void neverExceedsTheMaximum() throws InterruptedException {
+		var limiter = new UploadLimiter(1, 2, 1);
+		for (int i = 0; i < 10; i++)
+			limiter.release(limiter.acquire(), Outcome.SUCCESS, 0);
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	void backsOffOncePerRound() throws InterruptedException {
+		var limiter = new UploadLimiter(1, 8, 1);
+		while (limiter.getLimit() < 8)
+			limiter.release(limiter.acquire(), Outcome.SUCCESS, 0);
+
+		var permits = new ArrayList<UploadLimiter.Permit>();
+		for (int i = 0; i < 8; i++)
+			permits.add(limiter.acquire());
+		assertEquals(8, limiter.getInFlight());
+
+		// Every upload of the round is rate limited, only the first one counts.
+		limiter.release(permits.get(0), Outcome.RATE_LIMITED, 0);
+		limiter.release(permits.get(1), Outcome.TIMEOUT, 0);
+		limiter.release(permits.get(2), Outcome.RATE_LIMITED, 0);
+		assertEquals(4, limiter.getLimit());
+		for (var permit : permits.subList(3, 8))
+			limiter.release(permit, Outcome.FAILED, 0);
+		assertEquals(4, limiter.getLimit());
+
+		// Uploads started after the back off can trigger another.
+		limiter.release(limiter.acquire(), Outcome.RATE_LIMITED, 0);
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	void plainFailuresLeaveTheLimit() throws InterruptedException {
+		var limiter = new UploadLimiter(1, 8, 1);
+		limiter.release(limiter.acquire(), Outcome.SUCCESS, 0);
+		limiter.release(limiter.acquire(), Outcome.FAILED, 0);
+		assertEquals(2, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+}
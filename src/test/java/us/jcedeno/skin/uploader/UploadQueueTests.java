@@ -0,0 +1,59 @@
+package us.jcedeno.skin.uploader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class UploadQueueTests {
+
+	@Test
+	void interactiveOvertakesFreshBulk() throws InterruptedException {
+		var queue = new UploadQueue(Duration.ofMinutes(5));
+		var bulk = UUID.randomUUID();
+		var interactive = UUID.randomUUID();
+
+		queue.offer(bulk, Priority.BULK);
+		queue.offer(interactive, Priority.INTERACTIVE);
+
+		assertEquals(interactive, queue.poll(0, TimeUnit.MILLISECONDS).id());
+		assertEquals(bulk, queue.poll(0, TimeUnit.MILLISECONDS).id());
+		assertNull(queue.poll(0, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void agedBulkIsServedFirst() throws InterruptedException {
+		var queue = new UploadQueue(Duration.ZERO);
+		var bulk = UUID.randomUUID();
+		var interactive = UUID.randomUUID();
+
+		queue.offer(bulk, Priority.BULK);
+		Thread.sleep(5);
+		queue.offer(interactive, Priority.INTERACTIVE);
+
+		assertEquals(bulk, queue.poll(0, TimeUnit.MILLISECONDS).id());
+		assertEquals(interactive, queue.poll(0, TimeUnit.MILLISECONDS).id());
+	}
+
+	@Test
+	void promotionQueuesPlayerOnce() throws InterruptedException {
+		var queue = new UploadQueue(Duration.ofMinutes(5));
+		var id = UUID.randomUUID();
+
+		assertTrue(queue.offer(id, Priority.BULK));
+		assertTrue(queue.offer(id, Priority.INTERACTIVE));
+		assertFalse(queue.offer(id, Priority.BULK));
+		assertEquals(1, queue.size());
+
+		var job = queue.poll(0, TimeUnit.MILLISECONDS);
+		assertEquals(Priority.INTERACTIVE, job.priority());
+		assertNull(queue.poll(0, TimeUnit.MILLISECONDS));
+	}
+
+}